@@ -0,0 +1,392 @@
+package org.sputnik.ratelimit.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Objects;
+import org.sputnik.ratelimit.util.CountMinSketch;
+import org.sputnik.ratelimit.util.TimeSource;
+
+/**
+ * Repository to manage events in a memory-mapped file, for single node deployments without Redis. Limits survive restarts, as
+ * the file is reopened with its previous state, and no objects are allocated per key or per event.
+ *
+ * <p>The file is split in fixed-size slots, grouped in segments that are mapped and locked independently. Every slot holds the
+ * key fingerprint (a 64-bit hash of event id and key), its expiration, and a ring buffer with the timestamps of the last
+ * {@code eventsPerKey} events. Keys are found by linear probing from their home slot; expired slots are reused, and when all the
+ * probed slots are live the one expiring first is evicted, so an overloaded file forgets keys instead of failing.</p>
+ *
+ * <p>Slots are only locked inside this repository, so the file is locked while open and a second repository, of this or another
+ * process, fails to open it instead of corrupting it.</p>
+ *
+ * <p>Layout: a {@value #HEADER_BYTES} bytes header (magic, version, segments, slots per segment, events per key), followed by
+ * the segments. Each slot is fingerprint (long), expiration millis (long), ring head (int), events count (int) and the event
+ * timestamps (long each).</p>
+ */
+public class EventsMappedFileRepository implements EventsRepository, Closeable {
+
+  private static final int MAGIC = 0x524c4d46;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 64;
+  private static final int DEFAULT_SEGMENTS = 64;
+  private static final long MAX_SEGMENT_BYTES = 1L << 30;
+  private static final int MAX_PROBES = 64;
+  private static final int FINGERPRINT_OFFSET = 0;
+  private static final int EXPIRATION_OFFSET = 8;
+  private static final int HEAD_OFFSET = 16;
+  private static final int COUNT_OFFSET = 20;
+  private static final int EVENTS_OFFSET = 24;
+  private static final long NO_EXPIRATION = Long.MAX_VALUE;
+
+  private final FileChannel channel;
+  private final FileLock fileLock;
+  private final MappedByteBuffer[] segments;
+  private final Object[] locks;
+  private final int slotsPerSegment;
+  private final int eventsPerKey;
+  private final int slotBytes;
+  private final int maxProbes;
+  private final TimeSource timeSource;
+
+  /**
+   * Constructor. Opens the file with its previous state if it exists, or creates it otherwise.
+   *
+   * @param path         Events file.
+   * @param slots        Max number of keys, of all the events, that can be stored.
+   * @param eventsPerKey Max events stored per key, must be at least the max attempts of every event.
+   * @throws IOException              on file errors.
+   * @throws IllegalArgumentException if the file exists and was created with a different slots or eventsPerKey.
+   * @throws IllegalStateException    if the file is already open by another repository or process.
+   */
+  public EventsMappedFileRepository(Path path, int slots, int eventsPerKey) throws IOException {
+    this(path, slots, eventsPerKey, TimeSource.system());
+  }
+
+  /**
+   * Constructor. Opens the file with its previous state if it exists, or creates it otherwise.
+   *
+   * @param path         Events file.
+   * @param slots        Max number of keys, of all the events, that can be stored.
+   * @param eventsPerKey Max events stored per key, must be at least the max attempts of every event.
+   * @param timeSource   Time source for the event timestamps.
+   * @throws IOException              on file errors.
+   * @throws IllegalArgumentException if the file exists and was created with a different slots or eventsPerKey.
+   * @throws IllegalStateException    if the file is already open by another repository or process.
+   */
+  public EventsMappedFileRepository(Path path, int slots, int eventsPerKey, TimeSource timeSource) throws IOException {
+    this.timeSource = Objects.requireNonNull(timeSource, "timeSource must not be null");
+    if (slots <= 0) {
+      throw new IllegalArgumentException("slots must be > 0");
+    }
+    if (eventsPerKey <= 0) {
+      throw new IllegalArgumentException("eventsPerKey must be > 0");
+    }
+    this.eventsPerKey = eventsPerKey;
+    this.slotBytes = EVENTS_OFFSET + Long.BYTES * eventsPerKey;
+    long totalBytes = (long) slots * slotBytes;
+    int segmentCount = (int) Math.max((totalBytes + MAX_SEGMENT_BYTES - 1) / MAX_SEGMENT_BYTES, Math.min(DEFAULT_SEGMENTS, slots));
+    this.slotsPerSegment = (slots + segmentCount - 1) / segmentCount;
+    this.maxProbes = Math.min(MAX_PROBES, slotsPerSegment);
+
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      fileLock = lock(channel, path);
+      boolean exists = channel.size() > 0;
+      MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+      if (exists) {
+        checkHeader(header, path, segmentCount);
+      } else {
+        header.putInt(MAGIC).putInt(VERSION).putInt(segmentCount).putInt(slotsPerSegment).putInt(eventsPerKey);
+        header.force();
+      }
+
+      long segmentBytes = (long) slotsPerSegment * slotBytes;
+      segments = new MappedByteBuffer[segmentCount];
+      locks = new Object[segmentCount];
+      for (int i = 0; i < segmentCount; i++) {
+        segments[i] = channel.map(MapMode.READ_WRITE, HEADER_BYTES + i * segmentBytes, segmentBytes);
+        locks[i] = new Object();
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static FileLock lock(FileChannel channel, Path path) throws IOException {
+    FileLock lock;
+    try {
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;
+    }
+    if (lock == null) {
+      throw new IllegalStateException("Events file is already in use by another process or repository: " + path);
+    }
+
+    return lock;
+  }
+
+  private void checkHeader(MappedByteBuffer header, Path path, int segmentCount) {
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      throw new IllegalArgumentException("Not an events file: " + path);
+    }
+    if (header.getInt() != segmentCount || header.getInt() != slotsPerSegment || header.getInt() != eventsPerKey) {
+      throw new IllegalArgumentException("Events file created with a different number of slots or events per key: " + path);
+    }
+  }
+
+  /**
+   * Add Event. When the key already has eventsPerKey events, the oldest one is overwritten.
+   *
+   * @param eventId  Event id.
+   * @param key      Key.
+   * @param duration Max duration.
+   */
+  @Override
+  public void addEvent(String eventId, String key, Duration duration) {
+    long fingerprint = fingerprint(eventId, key);
+    int segmentIndex = segmentIndex(fingerprint);
+    MappedByteBuffer segment = segments[segmentIndex];
+    long now = timeSource.currentTimeMillis();
+    long expiration = duration == null ? NO_EXPIRATION : now + duration.toMillis();
+    synchronized (locks[segmentIndex]) {
+      int slot = findSlot(segment, fingerprint, now, true);
+      int head = segment.getInt(slot + HEAD_OFFSET);
+      int count = segment.getInt(slot + COUNT_OFFSET);
+      if (count < eventsPerKey) {
+        segment.putLong(eventOffset(slot, head + count), now);
+        segment.putInt(slot + COUNT_OFFSET, count + 1);
+      } else {
+        segment.putLong(eventOffset(slot, head), now);
+        segment.putInt(slot + HEAD_OFFSET, (head + 1) % eventsPerKey);
+      }
+      if (segment.getLong(slot + EXPIRATION_OFFSET) < expiration) {
+        segment.putLong(slot + EXPIRATION_OFFSET, expiration);
+      }
+    }
+  }
+
+  /**
+   * Get number of events for an event id, and a key.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   * @return number of events.
+   */
+  @Override
+  public long getEventsCount(String eventId, String key) {
+    long fingerprint = fingerprint(eventId, key);
+    int segmentIndex = segmentIndex(fingerprint);
+    MappedByteBuffer segment = segments[segmentIndex];
+    synchronized (locks[segmentIndex]) {
+      int slot = findSlot(segment, fingerprint, timeSource.currentTimeMillis(), false);
+      return slot < 0 ? 0 : segment.getInt(slot + COUNT_OFFSET);
+    }
+  }
+
+  /**
+   * Get oldest event timestamp for an event id, and a key, without allocating an {@link java.time.Instant}.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   * @return First event epoch millis or -1 if no events are found.
+   */
+  @Override
+  public long getOldestEventMillis(String eventId, String key) {
+    long fingerprint = fingerprint(eventId, key);
+    int segmentIndex = segmentIndex(fingerprint);
+    MappedByteBuffer segment = segments[segmentIndex];
+    synchronized (locks[segmentIndex]) {
+      int slot = findSlot(segment, fingerprint, timeSource.currentTimeMillis(), false);
+      return slot < 0 ? -1 : oldest(segment, slot);
+    }
+  }
+
+  /**
+   * Remove all events older than threshold epoch millis, using an exclusive upper bound.
+   *
+   * @param eventId         Event id.
+   * @param key             Key.
+   * @param thresholdMillis Threshold epoch millis.
+   * @return number of removed entries.
+   */
+  @Override
+  public long removeEventsOlderThan(String eventId, String key, long thresholdMillis) {
+    long fingerprint = fingerprint(eventId, key);
+    int segmentIndex = segmentIndex(fingerprint);
+    MappedByteBuffer segment = segments[segmentIndex];
+    synchronized (locks[segmentIndex]) {
+      int slot = findSlot(segment, fingerprint, timeSource.currentTimeMillis(), false);
+      return slot < 0 ? 0 : prune(segment, slot, thresholdMillis);
+    }
+  }
+
+  /**
+   * Remove the events older than the window ending now, count the remaining ones and get the oldest one, holding the segment
+   * lock once.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   * @param window  Sliding window length.
+   * @return events inside the window.
+   */
+  @Override
+  public WindowCount countEventsInWindow(String eventId, String key, Duration window) {
+    long fingerprint = fingerprint(eventId, key);
+    int segmentIndex = segmentIndex(fingerprint);
+    MappedByteBuffer segment = segments[segmentIndex];
+    long now = timeSource.currentTimeMillis();
+    synchronized (locks[segmentIndex]) {
+      int slot = findSlot(segment, fingerprint, now, false);
+      if (slot < 0) {
+        return new WindowCount(0, -1, now);
+      }
+
+      prune(segment, slot, now - window.toMillis());
+      return new WindowCount(segment.getInt(slot + COUNT_OFFSET), oldest(segment, slot), now);
+    }
+  }
+
+  /**
+   * Remove list of events for an event id, and a key.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   */
+  @Override
+  public void remove(String eventId, String key) {
+    long fingerprint = fingerprint(eventId, key);
+    int segmentIndex = segmentIndex(fingerprint);
+    MappedByteBuffer segment = segments[segmentIndex];
+    synchronized (locks[segmentIndex]) {
+      int slot = findSlot(segment, fingerprint, timeSource.currentTimeMillis(), false);
+      if (slot >= 0) {
+        // the fingerprint is kept, so the probe sequences going through this slot are not broken
+        segment.putLong(slot + EXPIRATION_OFFSET, 0);
+        segment.putInt(slot + COUNT_OFFSET, 0);
+      }
+    }
+  }
+
+  @Override
+  public long maxEventsPerKey() {
+    return eventsPerKey;
+  }
+
+  /**
+   * Write the pending changes to the file. Changes are written by the operating system anyway, so this is only needed to survive
+   * a crash of the host, not of the process.
+   */
+  public void flush() {
+    for (int i = 0; i < segments.length; i++) {
+      synchronized (locks[i]) {
+        segments[i].force();
+      }
+    }
+  }
+
+  /**
+   * Flush and close the file. The repository must not be used after closing it.
+   *
+   * @throws IOException on file errors.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    try {
+      fileLock.release();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Find the slot of a key, probing from its home slot. Must be called holding the segment lock.
+   *
+   * @param create If a slot should be claimed when the key is not found.
+   * @return offset of the live slot of the key, or -1 if not found and create is false.
+   */
+  private int findSlot(MappedByteBuffer segment, long fingerprint, long now, boolean create) {
+    int home = (int) Long.remainderUnsigned(fingerprint, slotsPerSegment);
+    int reusable = -1;
+    int evictable = -1;
+    for (int i = 0; i < maxProbes; i++) {
+      int slot = ((home + i) % slotsPerSegment) * slotBytes;
+      long slotFingerprint = segment.getLong(slot + FINGERPRINT_OFFSET);
+      long expiration = segment.getLong(slot + EXPIRATION_OFFSET);
+      if (slotFingerprint == fingerprint) {
+        if (expiration > now) {
+          return slot;
+        }
+        return create ? claim(segment, slot, fingerprint) : -1;
+      }
+      if (slotFingerprint == 0) {
+        // slots are never emptied, so the key cannot be further in the probe sequence
+        return create ? claim(segment, reusable < 0 ? slot : reusable, fingerprint) : -1;
+      }
+      if (expiration <= now) {
+        reusable = reusable < 0 ? slot : reusable;
+      } else if (evictable < 0 || expiration < segment.getLong(evictable + EXPIRATION_OFFSET)) {
+        evictable = slot;
+      }
+    }
+
+    if (!create) {
+      return -1;
+    }
+
+    return claim(segment, reusable < 0 ? evictable : reusable, fingerprint);
+  }
+
+  /**
+   * Remove the events older than the threshold. Events are stored in insertion order, so the old ones are at the head of the ring.
+   */
+  private int prune(MappedByteBuffer segment, int slot, long thresholdMillis) {
+    int head = segment.getInt(slot + HEAD_OFFSET);
+    int count = segment.getInt(slot + COUNT_OFFSET);
+    int removed = 0;
+    while (removed < count && segment.getLong(eventOffset(slot, head + removed)) < thresholdMillis) {
+      removed++;
+    }
+    if (removed > 0) {
+      segment.putInt(slot + HEAD_OFFSET, (head + removed) % eventsPerKey);
+      segment.putInt(slot + COUNT_OFFSET, count - removed);
+    }
+
+    return removed;
+  }
+
+  private long oldest(MappedByteBuffer segment, int slot) {
+    return segment.getInt(slot + COUNT_OFFSET) == 0 ? -1 : segment.getLong(eventOffset(slot, segment.getInt(slot + HEAD_OFFSET)));
+  }
+
+  private int claim(MappedByteBuffer segment, int slot, long fingerprint) {
+    segment.putLong(slot + FINGERPRINT_OFFSET, fingerprint);
+    segment.putLong(slot + EXPIRATION_OFFSET, 0);
+    segment.putInt(slot + HEAD_OFFSET, 0);
+    segment.putInt(slot + COUNT_OFFSET, 0);
+    return slot;
+  }
+
+  private int eventOffset(int slot, int index) {
+    return slot + EVENTS_OFFSET + (index % eventsPerKey) * Long.BYTES;
+  }
+
+  private int segmentIndex(long fingerprint) {
+    return (int) Long.remainderUnsigned(fingerprint >>> 32, segments.length);
+  }
+
+  private static long fingerprint(String eventId, String key) {
+    long fingerprint = CountMinSketch.hash(CountMinSketch.hash(eventId), key);
+    // 0 marks never used slots
+    return fingerprint == 0 ? 1 : fingerprint;
+  }
+}
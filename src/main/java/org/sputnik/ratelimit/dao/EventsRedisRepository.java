@@ -2,19 +2,53 @@ package org.sputnik.ratelimit.dao;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.ObjLongConsumer;
+import org.sputnik.ratelimit.util.TimeSource;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
 import redis.clients.jedis.resps.Tuple;
 
 /**
- * Repository to manage Events persistence.
+ * Repository to manage Events persistence. Events are timestamped with the client time source, or with the Redis server clock
+ * (read by the scripts with {@code TIME}) so the windows are not affected by the clock skew between clients.
  */
-public class EventsRedisRepository {
+public class EventsRedisRepository implements EventsRepository {
 
   protected static final String KEY_SEPARATOR = "-";
+
+  private static final RedisScript COUNT_SCRIPT = new RedisScript(RedisScript.NOW_LUA + """
+    redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', '(' .. (now - tonumber(ARGV[2])))
+    local count = redis.call('ZCARD', KEYS[1])
+    local oldest = -1
+    if count > 0 then
+      oldest = tonumber(redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')[2])
+    end
+    return {count, oldest, now}
+    """);
+
+  private static final RedisScript ADD_SCRIPT = new RedisScript(RedisScript.NOW_LUA + """
+    redis.call('ZADD', KEYS[1], now, ARGV[3])
+    local ttl = tonumber(ARGV[2])
+    if ttl > 0 then
+      redis.call('PEXPIRE', KEYS[1], ttl)
+    end
+    return now
+    """);
+
   protected final JedisPool jedisPool;
+  private final TimeSource timeSource;
+  private final boolean serverTime;
 
   /**
    * Constructor.
@@ -22,7 +56,20 @@ public class EventsRedisRepository {
    * @param jedisPool Jedis Pool.
    */
   public EventsRedisRepository(JedisPool jedisPool) {
+    this(jedisPool, TimeSource.system(), false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param jedisPool  Jedis Pool.
+   * @param timeSource Client time source.
+   * @param serverTime Whether to timestamp events with the Redis server clock instead of the client time source.
+   */
+  public EventsRedisRepository(JedisPool jedisPool, TimeSource timeSource, boolean serverTime) {
     this.jedisPool = Objects.requireNonNull(jedisPool, "jedisPool must not be null");
+    this.timeSource = Objects.requireNonNull(timeSource, "timeSource must not be null");
+    this.serverTime = serverTime;
   }
 
   /**
@@ -32,14 +79,19 @@ public class EventsRedisRepository {
    * @param key      Key.
    * @param duration Max duration.
    */
+  @Override
   public void addEvent(String eventId, String key, Duration duration) {
     try (Jedis jedis = jedisPool.getResource()) {
       String redisKey = eventKey(eventId, key);
-      long now = System.currentTimeMillis();
       String member = UUID.randomUUID().toString();
-      jedis.zadd(redisKey, now, member);
-      if (duration != null) {
-        jedis.pexpire(redisKey, Math.max(1, duration.toMillis()));
+      if (serverTime) {
+        String ttl = duration == null ? "0" : Long.toString(Math.max(1, duration.toMillis()));
+        ADD_SCRIPT.eval(jedis, List.of(redisKey), List.of("", ttl, member));
+      } else {
+        jedis.zadd(redisKey, timeSource.currentTimeMillis(), member);
+        if (duration != null) {
+          jedis.pexpire(redisKey, Math.max(1, duration.toMillis()));
+        }
       }
     }
   }
@@ -51,6 +103,7 @@ public class EventsRedisRepository {
    * @param key     Key.
    * @return number of events.
    */
+  @Override
   public long getEventsCount(String eventId, String key) {
     long result;
     try (Jedis jedis = jedisPool.getResource()) {
@@ -61,35 +114,134 @@ public class EventsRedisRepository {
   }
 
   /**
-   * Get oldest event timestamp for an event id, and a key.
+   * Get oldest event timestamp for an event id, and a key, without allocating an {@link Instant}.
    *
    * @param eventId Event id.
    * @param key     Key.
-   * @return First event date or null if no events are found.
+   * @return First event epoch millis or -1 if no events are found.
    */
-  public Instant getOldestEvent(String eventId, String key) {
+  @Override
+  public long getOldestEventMillis(String eventId, String key) {
     try (Jedis jedis = jedisPool.getResource()) {
       var iterator = jedis.zrangeWithScores(eventKey(eventId, key), 0, 0).iterator();
       if (iterator.hasNext()) {
         Tuple tuple = iterator.next();
-        return Instant.ofEpochMilli((long) tuple.getScore());
+        return (long) tuple.getScore();
       }
     }
 
-    return null;
+    return -1;
   }
 
   /**
-   * Remove all events older than threshold instant, using an exclusive upper bound.
+   * Remove all events older than threshold epoch millis, using an exclusive upper bound.
    *
-   * @param eventId    Event id.
-   * @param key        Key.
-   * @param threshold  Threshold instant.
+   * @param eventId         Event id.
+   * @param key             Key.
+   * @param thresholdMillis Threshold epoch millis.
    * @return number of removed entries.
    */
-  public long removeEventsOlderThan(String eventId, String key, Instant threshold) {
+  @Override
+  public long removeEventsOlderThan(String eventId, String key, long thresholdMillis) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.zremrangeByScore(eventKey(eventId, key), "-inf", "(" + thresholdMillis);
+    }
+  }
+
+  /**
+   * Remove the events older than the window ending now, count the remaining ones and get the oldest one, in a single script call.
+   * Now is the server time when using the server clock.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   * @param window  Sliding window length.
+   * @return events inside the window.
+   */
+  @Override
+  public WindowCount countEventsInWindow(String eventId, String key, Duration window) {
+    String now = serverTime ? "" : Long.toString(timeSource.currentTimeMillis());
+    List<?> result;
     try (Jedis jedis = jedisPool.getResource()) {
-      return jedis.zremrangeByScore(eventKey(eventId, key), "-inf", "(" + threshold.toEpochMilli());
+      result = (List<?>) COUNT_SCRIPT.eval(jedis, List.of(eventKey(eventId, key)), List.of(now, Long.toString(window.toMillis())));
+    }
+
+    return new WindowCount((Long) result.get(0), (Long) result.get(1), (Long) result.get(2));
+  }
+
+  /**
+   * Count the events of several keys in one pipelined exchange, with one script call per key.
+   *
+   * @param queries Keys and windows to count.
+   * @return events inside every window, in the order of the queries.
+   */
+  @Override
+  public List<WindowCount> countEventsInWindows(List<WindowQuery> queries) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      try {
+        return countEventsInWindows(jedis, queries);
+      } catch (JedisDataException e) {
+        if (!RedisScript.isNoScript(e)) {
+          throw e;
+        }
+        COUNT_SCRIPT.load(jedis);
+        return countEventsInWindows(jedis, queries);
+      }
+    }
+  }
+
+  private List<WindowCount> countEventsInWindows(Jedis jedis, List<WindowQuery> queries) {
+    String now = serverTime ? "" : Long.toString(timeSource.currentTimeMillis());
+    List<Response<Object>> responses = new ArrayList<>(queries.size());
+    Pipeline pipeline = jedis.pipelined();
+    for (WindowQuery query : queries) {
+      responses.add(COUNT_SCRIPT.eval(pipeline, List.of(eventKey(query.eventId(), query.key())),
+        List.of(now, Long.toString(query.window().toMillis()))));
+    }
+    pipeline.sync();
+
+    List<WindowCount> counts = new ArrayList<>(queries.size());
+    for (Response<Object> response : responses) {
+      List<?> result = (List<?>) response.get();
+      counts.add(new WindowCount((Long) result.get(0), (Long) result.get(1), (Long) result.get(2)));
+    }
+
+    return counts;
+  }
+
+  /**
+   * Get the current time of the clock used to timestamp events: the Redis server clock when serverTime is set, or the client time
+   * source otherwise.
+   *
+   * @return epoch millis.
+   */
+  public long currentTimeMillis() {
+    if (!serverTime) {
+      return timeSource.currentTimeMillis();
+    }
+    try (Jedis jedis = jedisPool.getResource()) {
+      List<String> time = jedis.time();
+      return Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000;
+    }
+  }
+
+  /**
+   * Load the repository scripts in the server script cache, so the first calls don't need to send them.
+   */
+  public void loadScripts() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      COUNT_SCRIPT.load(jedis);
+      ADD_SCRIPT.load(jedis);
+    }
+  }
+
+  /**
+   * Check whether the repository scripts are in the server script cache.
+   *
+   * @return true if all the scripts are loaded.
+   */
+  public boolean scriptsLoaded() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return COUNT_SCRIPT.isLoaded(jedis) && ADD_SCRIPT.isLoaded(jedis);
     }
   }
 
@@ -99,12 +251,113 @@ public class EventsRedisRepository {
    * @param eventId Event id.
    * @param key     Key.
    */
+  @Override
   public void remove(String eventId, String key) {
     try (Jedis jedis = jedisPool.getResource()) {
       jedis.del(eventKey(eventId, key));
     }
   }
 
+  /**
+   * Remove the events of all the keys of an event id. Keys are found with a cursor based {@code SCAN} and removed with one
+   * {@code UNLINK} per batch, pausing between batches so Redis is never blocked.
+   *
+   * @param eventId   Event id.
+   * @param batchSize Keys requested per {@code SCAN} call.
+   * @param pause     Pause between batches.
+   * @return number of removed keys.
+   */
+  public long removeAll(String eventId, int batchSize, Duration pause) {
+    long[] removed = {0};
+    scanEventKeys(eventId, batchSize, pause, (jedis, keys) -> removed[0] += jedis.unlink(keys.toArray(String[]::new)));
+
+    return removed[0];
+  }
+
+  /**
+   * Count the keys with events of an event id, see {@link #removeAll(String, int, Duration)} for the scan behaviour.
+   *
+   * @param eventId   Event id.
+   * @param batchSize Keys requested per {@code SCAN} call.
+   * @param pause     Pause between batches.
+   * @return number of keys.
+   */
+  public long countKeys(String eventId, int batchSize, Duration pause) {
+    long[] count = {0};
+    scanEventKeys(eventId, batchSize, pause, (jedis, keys) -> count[0] += keys.size());
+
+    return count[0];
+  }
+
+  /**
+   * Get the number of events newer than threshold of every key of an event id. Counts are read with one pipeline per batch, see
+   * {@link #removeAll(String, int, Duration)} for the scan behaviour.
+   *
+   * @param eventId   Event id.
+   * @param threshold Threshold instant, older events are not counted.
+   * @param batchSize Keys requested per {@code SCAN} call.
+   * @param pause     Pause between batches.
+   * @param consumer  Receives every key with at least one event, and its number of events.
+   */
+  public void forEachEventsCount(String eventId, Instant threshold, int batchSize, Duration pause, ObjLongConsumer<String> consumer) {
+    String min = Long.toString(threshold.toEpochMilli());
+    int keyOffset = eventId.length() + KEY_SEPARATOR.length();
+    scanEventKeys(eventId, batchSize, pause, (jedis, keys) -> {
+      Pipeline pipeline = jedis.pipelined();
+      List<Response<Long>> counts = new ArrayList<>(keys.size());
+      keys.forEach(redisKey -> counts.add(pipeline.zcount(redisKey, min, "+inf")));
+      pipeline.sync();
+      for (int i = 0; i < keys.size(); i++) {
+        long count = counts.get(i).get();
+        if (count > 0) {
+          consumer.accept(keys.get(i).substring(keyOffset), count);
+        }
+      }
+    });
+  }
+
+  /**
+   * Scan the keys of an event id, borrowing a connection per batch. Keys of other event ids sharing the prefix, and keys of other
+   * repositories (containing an extra separator), are skipped.
+   */
+  private void scanEventKeys(String eventId, int batchSize, Duration pause, BiConsumer<Jedis, List<String>> batchConsumer) {
+    String prefix = eventId + KEY_SEPARATOR;
+    ScanParams params = new ScanParams().match(escapeGlob(prefix) + "*").count(batchSize);
+    String cursor = ScanParams.SCAN_POINTER_START;
+    do {
+      try (Jedis jedis = jedisPool.getResource()) {
+        ScanResult<String> result = jedis.scan(cursor, params);
+        cursor = result.getCursor();
+        List<String> keys = result.getResult().stream()
+          .filter(redisKey -> !redisKey.substring(prefix.length()).contains(KEY_SEPARATOR))
+          .toList();
+        if (!keys.isEmpty()) {
+          batchConsumer.accept(jedis, keys);
+        }
+      }
+      if (!isScanComplete(cursor) && !pause.isZero()) {
+        sleep(pause);
+      }
+    } while (!isScanComplete(cursor));
+  }
+
+  private static boolean isScanComplete(String cursor) {
+    return ScanParams.SCAN_POINTER_START.equals(cursor);
+  }
+
+  private static void sleep(Duration pause) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(pause.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scanning keys", e);
+    }
+  }
+
+  private static String escapeGlob(String text) {
+    return text.replaceAll("([\\\\*?\\[\\]])", "\\\\$1");
+  }
+
   private String eventKey(String eventId, String key) {
     return eventId + KEY_SEPARATOR + key;
   }
@@ -0,0 +1,117 @@
+package org.sputnik.ratelimit.dao;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage of the events of sliding window limits.
+ */
+public interface EventsRepository {
+
+  /**
+   * Add Event.
+   *
+   * @param eventId  Event id.
+   * @param key      Key.
+   * @param duration Max duration.
+   */
+  void addEvent(String eventId, String key, Duration duration);
+
+  /**
+   * Get number of events for an event id, and a key.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   * @return number of events.
+   */
+  long getEventsCount(String eventId, String key);
+
+  /**
+   * Get oldest event timestamp for an event id, and a key.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   * @return First event date or null if no events are found.
+   */
+  default Instant getOldestEvent(String eventId, String key) {
+    long oldest = getOldestEventMillis(eventId, key);
+    return oldest < 0 ? null : Instant.ofEpochMilli(oldest);
+  }
+
+  /**
+   * Get oldest event timestamp for an event id, and a key, without allocating an {@link Instant}.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   * @return First event epoch millis or -1 if no events are found.
+   */
+  long getOldestEventMillis(String eventId, String key);
+
+  /**
+   * Remove all events older than threshold instant, using an exclusive upper bound.
+   *
+   * @param eventId   Event id.
+   * @param key       Key.
+   * @param threshold Threshold instant.
+   * @return number of removed entries.
+   */
+  default long removeEventsOlderThan(String eventId, String key, Instant threshold) {
+    return removeEventsOlderThan(eventId, key, threshold.toEpochMilli());
+  }
+
+  /**
+   * Remove all events older than threshold epoch millis, using an exclusive upper bound.
+   *
+   * @param eventId         Event id.
+   * @param key             Key.
+   * @param thresholdMillis Threshold epoch millis.
+   * @return number of removed entries.
+   */
+  long removeEventsOlderThan(String eventId, String key, long thresholdMillis);
+
+  /**
+   * Remove the events older than the window ending now, and count the remaining ones, in a single operation. The repository
+   * clock defines now, so the result is consistent with the timestamps of {@link #addEvent(String, String, Duration)}.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   * @param window  Sliding window length.
+   * @return events inside the window.
+   */
+  WindowCount countEventsInWindow(String eventId, String key, Duration window);
+
+  /**
+   * {@link #countEventsInWindow(String, String, Duration)} for several keys at once, which repositories may run in a single
+   * exchange.
+   *
+   * @param queries Keys and windows to count.
+   * @return events inside every window, in the order of the queries.
+   */
+  default List<WindowCount> countEventsInWindows(List<WindowQuery> queries) {
+    List<WindowCount> counts = new ArrayList<>(queries.size());
+    for (WindowQuery query : queries) {
+      counts.add(countEventsInWindow(query.eventId(), query.key(), query.window()));
+    }
+
+    return counts;
+  }
+
+  /**
+   * Remove list of events for an event id, and a key.
+   *
+   * @param eventId Event id.
+   * @param key     Key.
+   */
+  void remove(String eventId, String key);
+
+  /**
+   * Max events stored per key. Events with a higher max attempts cannot be limited with this repository.
+   *
+   * @return max events per key.
+   */
+  default long maxEventsPerKey() {
+    return Long.MAX_VALUE;
+  }
+}
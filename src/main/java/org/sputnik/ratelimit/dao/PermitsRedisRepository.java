@@ -0,0 +1,180 @@
+package org.sputnik.ratelimit.dao;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import org.sputnik.ratelimit.util.TimeSource;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Repository to manage in-flight permits. Permits of a key are stored in a sorted set (score = lease expiration), and every
+ * operation is a single Lua script call, so it takes one round trip and is atomic. Leases of crashed holders are reclaimed by the
+ * next acquire once they expire.
+ */
+public class PermitsRedisRepository {
+
+  private static final RedisScript ACQUIRE_SCRIPT = new RedisScript(RedisScript.NOW_LUA + """
+    local ttl = tonumber(ARGV[2])
+    redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now)
+    local inFlight = redis.call('ZCARD', KEYS[1])
+    if inFlight < tonumber(ARGV[3]) then
+      redis.call('ZADD', KEYS[1], now + ttl, ARGV[4])
+      if redis.call('PTTL', KEYS[1]) < ttl then
+        redis.call('PEXPIRE', KEYS[1], ttl)
+      end
+      return {1, inFlight + 1, 0, now + ttl}
+    end
+    local first = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')
+    return {0, inFlight, tonumber(first[2]) - now, 0}
+    """);
+
+  private static final RedisScript RENEW_SCRIPT = new RedisScript(RedisScript.NOW_LUA + """
+    local ttl = tonumber(ARGV[2])
+    local expiration = redis.call('ZSCORE', KEYS[1], ARGV[3])
+    if not expiration or tonumber(expiration) <= now then
+      return 0
+    end
+    redis.call('ZADD', KEYS[1], now + ttl, ARGV[3])
+    if redis.call('PTTL', KEYS[1]) < ttl then
+      redis.call('PEXPIRE', KEYS[1], ttl)
+    end
+    return now + ttl
+    """);
+
+  protected final JedisPool jedisPool;
+  private final TimeSource timeSource;
+  private final boolean serverTime;
+
+  /**
+   * Constructor.
+   *
+   * @param jedisPool Jedis Pool.
+   */
+  public PermitsRedisRepository(JedisPool jedisPool) {
+    this(jedisPool, TimeSource.system());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param jedisPool  Jedis Pool.
+   * @param timeSource Time source for the lease expirations.
+   */
+  public PermitsRedisRepository(JedisPool jedisPool, TimeSource timeSource) {
+    this(jedisPool, timeSource, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param jedisPool  Jedis Pool.
+   * @param timeSource Time source for the lease expirations.
+   * @param serverTime Whether to compute the lease expirations with the Redis server clock instead of the client time source, so a
+   *                   client with a skewed clock cannot reclaim live leases of other clients.
+   */
+  public PermitsRedisRepository(JedisPool jedisPool, TimeSource timeSource, boolean serverTime) {
+    this.jedisPool = Objects.requireNonNull(jedisPool, "jedisPool must not be null");
+    this.timeSource = Objects.requireNonNull(timeSource, "timeSource must not be null");
+    this.serverTime = serverTime;
+  }
+
+  /**
+   * Acquire a permit, if less than maxPermits are in flight.
+   *
+   * @param eventId    Event id.
+   * @param key        Key.
+   * @param permitId   Unique permit id.
+   * @param maxPermits Max permits in flight.
+   * @param leaseTime  Permit lease time.
+   * @return acquire result.
+   */
+  public AcquireResult acquire(String eventId, String key, String permitId, long maxPermits, Duration leaseTime) {
+    List<String> args = List.of(now(), Long.toString(leaseTime.toMillis()), Long.toString(maxPermits), permitId);
+    List<?> result;
+    try (Jedis jedis = jedisPool.getResource()) {
+      result = (List<?>) ACQUIRE_SCRIPT.eval(jedis, List.of(permitsKey(eventId, key)), args);
+    }
+
+    return new AcquireResult((Long) result.get(0) == 1, (Long) result.get(1), Math.max(0, (Long) result.get(2)),
+      (Long) result.get(3));
+  }
+
+  /**
+   * Extend the lease of a permit.
+   *
+   * @param eventId   Event id.
+   * @param key       Key.
+   * @param permitId  Permit id.
+   * @param leaseTime New lease time, from now.
+   * @return expiration of the renewed lease, or null if the permit was released or has already expired.
+   */
+  public Instant renew(String eventId, String key, String permitId, Duration leaseTime) {
+    List<String> args = List.of(now(), Long.toString(leaseTime.toMillis()), permitId);
+    long expiresAtMillis;
+    try (Jedis jedis = jedisPool.getResource()) {
+      expiresAtMillis = (Long) RENEW_SCRIPT.eval(jedis, List.of(permitsKey(eventId, key)), args);
+    }
+
+    return expiresAtMillis > 0 ? Instant.ofEpochMilli(expiresAtMillis) : null;
+  }
+
+  /**
+   * Release a permit.
+   *
+   * @param eventId  Event id.
+   * @param key      Key.
+   * @param permitId Permit id.
+   * @return <code>true</code> if the permit was in flight, <code>false</code> if it was already released or reclaimed.
+   */
+  public boolean release(String eventId, String key, String permitId) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return jedis.zrem(permitsKey(eventId, key), permitId) > 0;
+    }
+  }
+
+  /**
+   * Load the repository scripts in the server script cache, so the first calls don't need to send them.
+   */
+  public void loadScripts() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      ACQUIRE_SCRIPT.load(jedis);
+      RENEW_SCRIPT.load(jedis);
+    }
+  }
+
+  /**
+   * Check whether the repository scripts are in the server script cache.
+   *
+   * @return true if all the scripts are loaded.
+   */
+  public boolean scriptsLoaded() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return ACQUIRE_SCRIPT.isLoaded(jedis) && RENEW_SCRIPT.isLoaded(jedis);
+    }
+  }
+
+  /**
+   * Current time sent to the scripts, empty to use the server clock.
+   */
+  private String now() {
+    return serverTime ? "" : Long.toString(timeSource.currentTimeMillis());
+  }
+
+  /**
+   * Permit acquire result.
+   *
+   * @param acquired        If the permit has been acquired.
+   * @param inFlight        Permits in flight, including the acquired one.
+   * @param waitMillis      Millis until the next lease expires, when the permit has not been acquired.
+   * @param expiresAtMillis Lease expiration (epoch millis) of the acquired permit, 0 if not acquired.
+   */
+  public record AcquireResult(boolean acquired, long inFlight, long waitMillis, long expiresAtMillis) {
+
+  }
+
+  private String permitsKey(String eventId, String key) {
+    return eventId + EventsRedisRepository.KEY_SEPARATOR + key;
+  }
+}
@@ -0,0 +1,100 @@
+package org.sputnik.ratelimit.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+/**
+ * Lua script executed by its SHA1 digest, so the script body is only sent when the server doesn't know it yet.
+ */
+class RedisScript {
+
+  /**
+   * Script prologue setting {@code now} to {@code ARGV[1]}, or to the epoch millis of the server clock when it's empty.
+   */
+  static final String NOW_LUA = """
+    local now = tonumber(ARGV[1])
+    if not now then
+      local time = redis.call('TIME')
+      now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    end
+    """;
+
+  private final String script;
+  private final String sha1;
+
+  RedisScript(String script) {
+    this.script = script;
+    try {
+      this.sha1 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(script.getBytes(UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Execute the script, loading it in the server if needed.
+   *
+   * @param jedis Jedis connection.
+   * @param keys  Script keys.
+   * @param args  Script arguments.
+   * @return script result.
+   */
+  Object eval(Jedis jedis, List<String> keys, List<String> args) {
+    try {
+      return jedis.evalsha(sha1, keys, args);
+    } catch (JedisNoScriptException e) {
+      return jedis.eval(script, keys, args);
+    }
+  }
+
+  /**
+   * Queue the script execution in a pipeline. The script must already be loaded, see {@link #isNoScript(JedisDataException)}.
+   *
+   * @param pipeline Pipeline.
+   * @param keys     Script keys.
+   * @param args     Script arguments.
+   * @return script result, once the pipeline is synced.
+   */
+  Response<Object> eval(Pipeline pipeline, List<String> keys, List<String> args) {
+    return pipeline.evalsha(sha1, keys, args);
+  }
+
+  /**
+   * Whether an error is caused by a script not loaded in the server. Pipelined replies may report it as a plain
+   * {@link JedisDataException}.
+   *
+   * @param e Error.
+   * @return <code>true</code> if the script must be loaded.
+   */
+  static boolean isNoScript(JedisDataException e) {
+    return e instanceof JedisNoScriptException || (e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT"));
+  }
+
+  /**
+   * Load the script in the server script cache.
+   *
+   * @param jedis Jedis connection.
+   */
+  void load(Jedis jedis) {
+    jedis.scriptLoad(script);
+  }
+
+  /**
+   * Check whether the script is in the server script cache.
+   *
+   * @param jedis Jedis connection.
+   * @return true if the script is loaded.
+   */
+  boolean isLoaded(Jedis jedis) {
+    return Boolean.TRUE.equals(jedis.scriptExists(sha1));
+  }
+}
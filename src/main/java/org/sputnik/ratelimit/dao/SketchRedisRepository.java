@@ -0,0 +1,269 @@
+package org.sputnik.ratelimit.dao;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import org.sputnik.ratelimit.util.CountMinSketch;
+import org.sputnik.ratelimit.util.TimeSource;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Repository to manage approximate event counts. Each event window is split in sub-windows, and every sub-window is a
+ * count-min sketch stored as a fixed-size Redis string of 32-bit counters (updated with {@code BITFIELD}). Memory per event is
+ * {@code width * depth * 4 * (subWindows + 1)} bytes regardless of the number of keys.
+ *
+ * <p>Every operation is a single script call, which picks the sub-windows from the client time source or, with serverTime, from
+ * the Redis server clock, so clients with skewed clocks still share the same sub-windows.</p>
+ */
+public class SketchRedisRepository {
+
+  protected static final String SKETCH_PREFIX = "cms";
+
+  /**
+   * KEYS[1] = sub-window keys prefix, ARGV = now, sub-window millis, sub-window key TTL, counter offsets.
+   */
+  private static final RedisScript ADD_SCRIPT = new RedisScript(RedisScript.NOW_LUA + """
+    local key = KEYS[1] .. math.floor(now / tonumber(ARGV[2]))
+    local args = {'OVERFLOW', 'SAT'}
+    for i = 4, #ARGV do
+      table.insert(args, 'INCRBY')
+      table.insert(args, 'u32')
+      table.insert(args, ARGV[i])
+      table.insert(args, '1')
+    end
+    redis.call('BITFIELD', key, unpack(args))
+    redis.call('PEXPIRE', key, ARGV[3])
+    return now
+    """);
+
+  /**
+   * KEYS[1] = sub-window keys prefix, ARGV = now, sub-window millis, sub-windows, counter offsets. Returns now, followed by the
+   * estimate of every sub-window, oldest first.
+   */
+  private static final RedisScript ESTIMATE_SCRIPT = new RedisScript(RedisScript.NOW_LUA + """
+    local current = math.floor(now / tonumber(ARGV[2]))
+    local args = {}
+    for i = 4, #ARGV do
+      table.insert(args, 'GET')
+      table.insert(args, 'u32')
+      table.insert(args, ARGV[i])
+    end
+    local result = {now}
+    for index = current - tonumber(ARGV[3]), current do
+      local counters = redis.call('BITFIELD_RO', KEYS[1] .. index, unpack(args))
+      local estimate = counters[1]
+      for _, counter in ipairs(counters) do
+        if counter < estimate then
+          estimate = counter
+        end
+      end
+      table.insert(result, estimate)
+    end
+    return result
+    """);
+
+  protected final JedisPool jedisPool;
+  private final int width;
+  private final int depth;
+  private final int subWindows;
+  private final TimeSource timeSource;
+  private final boolean serverTime;
+
+  /**
+   * Constructor.
+   *
+   * @param jedisPool  Jedis Pool.
+   * @param width      Counters per sketch row, rounded up to a power of two.
+   * @param depth      Sketch rows.
+   * @param subWindows Number of sub-windows per event window.
+   */
+  public SketchRedisRepository(JedisPool jedisPool, int width, int depth, int subWindows) {
+    this(jedisPool, width, depth, subWindows, TimeSource.system());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param jedisPool  Jedis Pool.
+   * @param width      Counters per sketch row, rounded up to a power of two.
+   * @param depth      Sketch rows.
+   * @param subWindows Number of sub-windows per event window.
+   * @param timeSource Time source selecting the current sub-window.
+   */
+  public SketchRedisRepository(JedisPool jedisPool, int width, int depth, int subWindows, TimeSource timeSource) {
+    this(jedisPool, width, depth, subWindows, timeSource, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param jedisPool  Jedis Pool.
+   * @param width      Counters per sketch row, rounded up to a power of two.
+   * @param depth      Sketch rows.
+   * @param subWindows Number of sub-windows per event window.
+   * @param timeSource Time source selecting the current sub-window.
+   * @param serverTime Whether to select the current sub-window with the Redis server clock instead of the client time source.
+   */
+  public SketchRedisRepository(JedisPool jedisPool, int width, int depth, int subWindows, TimeSource timeSource,
+    boolean serverTime) {
+    this.serverTime = serverTime;
+    this.jedisPool = Objects.requireNonNull(jedisPool, "jedisPool must not be null");
+    this.timeSource = Objects.requireNonNull(timeSource, "timeSource must not be null");
+    if (width <= 0) {
+      throw new IllegalArgumentException("width must be > 0");
+    }
+    if (depth <= 0) {
+      throw new IllegalArgumentException("depth must be > 0");
+    }
+    if (subWindows <= 0) {
+      throw new IllegalArgumentException("subWindows must be > 0");
+    }
+    this.width = CountMinSketch.roundUpToPowerOfTwo(width);
+    this.depth = depth;
+    this.subWindows = subWindows;
+  }
+
+  /**
+   * Add Event.
+   *
+   * @param eventId Event id.
+   * @param keyHash Key hash, see {@link CountMinSketch#hash(long, String)}.
+   * @param window  Event window.
+   */
+  public void addEvent(String eventId, long keyHash, Duration window) {
+    long subWindowMillis = subWindowMillis(window);
+    List<String> args = new ArrayList<>(3 + depth);
+    args.add(now());
+    args.add(Long.toString(subWindowMillis));
+    args.add(Long.toString(subWindowMillis * (subWindows + 1)));
+    addOffsets(args, keyHash);
+
+    try (Jedis jedis = jedisPool.getResource()) {
+      ADD_SCRIPT.eval(jedis, List.of(sketchKeyPrefix(eventId)), args);
+    }
+  }
+
+  /**
+   * Estimate the number of events of a key inside the window. All the sub-windows overlapping the window are counted, so the
+   * estimate may include events up to one sub-window older than the window, but never misses one.
+   *
+   * @param eventId     Event id.
+   * @param keyHash     Key hash, see {@link CountMinSketch#hash(long, String)}.
+   * @param window      Event window.
+   * @param maxAttempts Max events allowed inside the window, used to compute the wait time.
+   * @return estimated count and millis to wait until the count drops below maxAttempts.
+   */
+  public Estimate estimate(String eventId, long keyHash, Duration window, long maxAttempts) {
+    long subWindowMillis = subWindowMillis(window);
+    List<String> args = new ArrayList<>(3 + depth);
+    args.add(now());
+    args.add(Long.toString(subWindowMillis));
+    args.add(Integer.toString(subWindows));
+    addOffsets(args, keyHash);
+
+    List<?> result;
+    try (Jedis jedis = jedisPool.getResource()) {
+      result = (List<?>) ESTIMATE_SCRIPT.eval(jedis, List.of(sketchKeyPrefix(eventId)), args);
+    }
+
+    long now = (Long) result.get(0);
+    long currentIndex = now / subWindowMillis;
+    long[] counts = new long[result.size() - 1];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = (Long) result.get(i + 1);
+      total += counts[i];
+    }
+
+    long waitMillis = 0;
+    long remaining = total;
+    for (int i = 0; i < counts.length && remaining >= maxAttempts; i++) {
+      remaining -= counts[i];
+      long expiresAt = (currentIndex + i + 1) * subWindowMillis;
+      waitMillis = Math.max(0, expiresAt - now);
+    }
+
+    return new Estimate(total, waitMillis);
+  }
+
+  /**
+   * Remove all the events of an event id.
+   *
+   * @param eventId Event id.
+   * @param window  Event window.
+   * @return number of removed sub-window keys.
+   */
+  public long removeAll(String eventId, Duration window) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      long currentIndex = currentTimeMillis(jedis) / subWindowMillis(window);
+      String[] keys = new String[subWindows + 1];
+      for (int i = 0; i <= subWindows; i++) {
+        keys[i] = sketchKeyPrefix(eventId) + (currentIndex - subWindows + i);
+      }
+      return jedis.unlink(keys);
+    }
+  }
+
+  /**
+   * Load the repository scripts in the server script cache, so the first calls don't need to send them.
+   */
+  public void loadScripts() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      ADD_SCRIPT.load(jedis);
+      ESTIMATE_SCRIPT.load(jedis);
+    }
+  }
+
+  /**
+   * Check whether the repository scripts are in the server script cache.
+   *
+   * @return true if all the scripts are loaded.
+   */
+  public boolean scriptsLoaded() {
+    try (Jedis jedis = jedisPool.getResource()) {
+      return ADD_SCRIPT.isLoaded(jedis) && ESTIMATE_SCRIPT.isLoaded(jedis);
+    }
+  }
+
+  /**
+   * Approximate events count.
+   *
+   * @param count      Estimated number of events inside the window.
+   * @param waitMillis Millis to wait until the count drops below the max attempts.
+   */
+  public record Estimate(long count, long waitMillis) {
+
+  }
+
+  private long subWindowMillis(Duration window) {
+    // rounded up, so the counted sub-windows always cover the whole window
+    return Math.max(1, (window.toMillis() + subWindows - 1) / subWindows);
+  }
+
+  /**
+   * Current time sent to the scripts, empty to use the server clock.
+   */
+  private String now() {
+    return serverTime ? "" : Long.toString(timeSource.currentTimeMillis());
+  }
+
+  private long currentTimeMillis(Jedis jedis) {
+    if (!serverTime) {
+      return timeSource.currentTimeMillis();
+    }
+    List<String> time = jedis.time();
+    return Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000;
+  }
+
+  private void addOffsets(List<String> args, long keyHash) {
+    for (int row = 0; row < depth; row++) {
+      args.add("#" + ((long) row * width + CountMinSketch.index(keyHash, row, width)));
+    }
+  }
+
+  private String sketchKeyPrefix(String eventId) {
+    return eventId + EventsRedisRepository.KEY_SEPARATOR + SKETCH_PREFIX + EventsRedisRepository.KEY_SEPARATOR;
+  }
+}
@@ -0,0 +1,12 @@
+package org.sputnik.ratelimit.dao;
+
+/**
+ * Events of a key inside a sliding window.
+ *
+ * @param count        Events inside the window.
+ * @param oldestMillis Timestamp of the oldest event inside the window, -1 if there are none.
+ * @param nowMillis    Time the window ends at, from the same clock as the event timestamps.
+ */
+public record WindowCount(long count, long oldestMillis, long nowMillis) {
+
+}
@@ -0,0 +1,14 @@
+package org.sputnik.ratelimit.dao;
+
+import java.time.Duration;
+
+/**
+ * Sliding window of a key to count.
+ *
+ * @param eventId Event id.
+ * @param key     Key.
+ * @param window  Sliding window length.
+ */
+public record WindowQuery(String eventId, String key, Duration window) {
+
+}
@@ -0,0 +1,22 @@
+package org.sputnik.ratelimit.domain;
+
+import org.sputnik.ratelimit.domain.CanDoResponse.Reason;
+
+public record AcquireResponse(Permit permit, long waitMillis, Reason reason, long inFlight) {
+
+  public boolean acquired() {
+    return permit != null;
+  }
+
+  public static AcquireResponse success(Permit permit, long inFlight) {
+    return new AcquireResponse(permit, 0, null, inFlight);
+  }
+
+  public static AcquireResponse invalidRequest() {
+    return new AcquireResponse(null, 0, Reason.INVALID_REQUEST, 0);
+  }
+
+  public static AcquireResponse tooMany(long waitMillis, long inFlight) {
+    return new AcquireResponse(null, waitMillis, Reason.TOO_MANY_EVENTS, inFlight);
+  }
+}
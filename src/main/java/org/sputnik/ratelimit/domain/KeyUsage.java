@@ -0,0 +1,8 @@
+package org.sputnik.ratelimit.domain;
+
+/**
+ * Estimated usage of an event key. Counts come from a count-min sketch, so they may be slightly higher than the real ones.
+ */
+public record KeyUsage(String key, long attempts, long denials) {
+
+}
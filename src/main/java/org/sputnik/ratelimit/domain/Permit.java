@@ -0,0 +1,11 @@
+package org.sputnik.ratelimit.domain;
+
+import java.time.Instant;
+
+/**
+ * In-flight permit of a concurrency event. Must be released once the guarded operation finishes, otherwise it's reclaimed when
+ * its lease expires.
+ */
+public record Permit(String eventId, String key, String id, Instant expiresAt) {
+
+}
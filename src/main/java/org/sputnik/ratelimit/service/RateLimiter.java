@@ -3,53 +3,147 @@ package org.sputnik.ratelimit.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sputnik.ratelimit.dao.EventsRedisRepository;
+import org.sputnik.ratelimit.dao.EventsRepository;
+import org.sputnik.ratelimit.dao.PermitsRedisRepository;
+import org.sputnik.ratelimit.dao.PermitsRedisRepository.AcquireResult;
+import org.sputnik.ratelimit.dao.SketchRedisRepository;
+import org.sputnik.ratelimit.dao.SketchRedisRepository.Estimate;
+import org.sputnik.ratelimit.dao.WindowCount;
+import org.sputnik.ratelimit.dao.WindowQuery;
+import org.sputnik.ratelimit.domain.AcquireResponse;
 import org.sputnik.ratelimit.domain.CanDoResponse;
+import org.sputnik.ratelimit.domain.KeyUsage;
+import org.sputnik.ratelimit.domain.Permit;
 import org.sputnik.ratelimit.exception.DuplicatedEventKeyException;
+import org.sputnik.ratelimit.util.AdaptiveLimit;
+import org.sputnik.ratelimit.util.CountMinSketch;
 import org.sputnik.ratelimit.util.EventConfig;
+import org.sputnik.ratelimit.util.HashCacheSnapshot;
 import org.sputnik.ratelimit.util.Hasher;
+import org.sputnik.ratelimit.util.HeavyHitters;
+import org.sputnik.ratelimit.util.TimingWheel;
 import redis.clients.jedis.JedisPool;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ObjLongConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class RateLimiter implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+    private static final String HASH_CACHE_FINGERPRINT_TEXT = "rate-limiter-hash-cache";
+    private static final int HASH_CACHE_EVICTION_SAMPLES = 8;
+    private final EventsRepository eventsRepository;
     /**
-     * Maximum number of plain-text key -> hashed-key entries kept in memory.
+     * Redis backed repositories and pool, null when the events are stored in a non Redis {@link EventsRepository}.
      */
-    private static final int MAX_HASHED_KEY_CACHE_ENTRIES = 10_000;
     private final EventsRedisRepository eventsRedisRepository;
-    private final Map<String, EventConfig> eventsConfig;
+    /**
+     * Immutable snapshot of the configured events, swapped atomically when the configuration changes.
+     */
+    private final AtomicReference<Map<String, Event>> events;
     private final JedisPool jedisPool;
+    private final SketchRedisRepository sketchRedisRepository;
+    private final PermitsRedisRepository permitsRedisRepository;
     private final Hasher hasher;
-    private final Map<String, String> hashCache = new LinkedHashMap<>(16, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
-            return size() > MAX_HASHED_KEY_CACHE_ENTRIES;
-        }
-    };
+    private final long sketchSeed;
+    private final RateLimiterOptions options;
+    /**
+     * Plain-text key -> hashed-key cache. Entries are expired by the timing wheel once idle for the configured TTL, so its size
+     * follows the active keys, and evicted when full to make room for new keys.
+     */
+    private final Map<String, CachedHash> hashCache = new ConcurrentHashMap<>();
+    /**
+     * Sweeps the hash cache to pick eviction samples, so consecutive evictions look at different entries. Guarded by itself.
+     */
+    private final Object hashCacheEvictionLock = new Object();
+    private Iterator<Map.Entry<String, CachedHash>> hashCacheEvictionCursor;
+    private final TimingWheel timingWheel = TimingWheel.shared();
 
 
     /**
      * Constructor.
      *
      * @param jedisConf     Jedis configuration.
+     * @param options       Rate limiter options.
      * @param hashingSecret secret for hashing values
      * @param eventConfigs  Events configuration.
      */
-    public RateLimiter(JedisConfiguration jedisConf, String hashingSecret, EventConfig... eventConfigs) {
+    public RateLimiter(JedisConfiguration jedisConf, RateLimiterOptions options, String hashingSecret, EventConfig... eventConfigs) {
+        this.options = options;
         jedisPool = jedisConf.createPool();
-        eventsRedisRepository = new EventsRedisRepository(jedisPool);
+        eventsRedisRepository = new EventsRedisRepository(jedisPool, options.getTimeSource(), options.getServerTime());
+        eventsRepository = eventsRedisRepository;
+        sketchRedisRepository = new SketchRedisRepository(jedisPool, options.getApproximateSketchWidth(),
+                options.getApproximateSketchDepth(), options.getApproximateSubWindows(), options.getTimeSource(),
+                options.getServerTime());
+        permitsRedisRepository = new PermitsRedisRepository(jedisPool, options.getTimeSource(), options.getServerTime());
+        validateEventsConfig(eventConfigs);
+        events = new AtomicReference<>(Stream.of(eventConfigs).collect(
+                Collectors.toUnmodifiableMap(EventConfig::eventId, cfg -> createEvent(cfg, cfg, null))));
+        hasher = new Hasher(hashingSecret);
+        sketchSeed = CountMinSketch.hash(hashingSecret);
+        if (options.getHashCacheSnapshot() != null) {
+            try {
+                loadHashCache(options.getHashCacheSnapshot());
+            } catch (IOException e) {
+                logger.warn("Error loading hash cache snapshot: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Constructor for limiters storing the events in a non Redis repository, such as {@link
+     * org.sputnik.ratelimit.dao.EventsMappedFileRepository}. Only {@link EventConfig.Type#SLIDING_WINDOW} and
+     * {@link EventConfig.Type#ADAPTIVE} events are supported, with max attempts up to the repository max events per key, and the
+     * bulk operations ({@link #resetAll(String)}, {@link #countKeys(String)}, {@link #exportUsage(String, ObjLongConsumer)}) are
+     * not available. The repository is closed with the limiter if it's {@link Closeable}.
+     *
+     * @param eventsRepository Events repository.
+     * @param options          Rate limiter options.
+     * @param hashingSecret    secret for hashing values
+     * @param eventConfigs     Events configuration.
+     */
+    public RateLimiter(EventsRepository eventsRepository, RateLimiterOptions options, String hashingSecret,
+                       EventConfig... eventConfigs) {
+        this.options = options;
+        this.eventsRepository = Objects.requireNonNull(eventsRepository, "eventsRepository must not be null");
+        jedisPool = null;
+        eventsRedisRepository = null;
+        sketchRedisRepository = null;
+        permitsRedisRepository = null;
         validateEventsConfig(eventConfigs);
-        eventsConfig = Stream.of(eventConfigs).collect(Collectors.toMap(EventConfig::eventId, Function.identity()));
+        events = new AtomicReference<>(Stream.of(eventConfigs).collect(
+                Collectors.toUnmodifiableMap(EventConfig::eventId, cfg -> createEvent(cfg, cfg, null))));
         hasher = new Hasher(hashingSecret);
+        sketchSeed = CountMinSketch.hash(hashingSecret);
+        if (options.getHashCacheSnapshot() != null) {
+            try {
+                loadHashCache(options.getHashCacheSnapshot());
+            } catch (IOException e) {
+                logger.warn("Error loading hash cache snapshot: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param jedisConf     Jedis configuration.
+     * @param hashingSecret secret for hashing values
+     * @param eventConfigs  Events configuration.
+     */
+    public RateLimiter(JedisConfiguration jedisConf, String hashingSecret, EventConfig... eventConfigs) {
+        this(jedisConf, RateLimiterOptions.defaults(), hashingSecret, eventConfigs);
     }
 
     /**
@@ -73,42 +167,88 @@ public class RateLimiter implements Closeable {
      * exceeding event limits.
      */
     public CanDoResponse canDoEvent(String eventId, String key) {
-        CanDoResponse response;
-        if (isValidRequest(eventId, key)) {
-            logger.debug("Event ({}) exists, checking if it could be performed", eventId);
-
-            String hashedKey = hashText(key);
-            EventConfig eventConfig = eventsConfig.get(eventId);
-            Duration eventTime = eventConfig.minTime();
-            long eventMaxAttempts = eventConfig.maxAttempts();
-            Instant now = Instant.now();
-            eventsRedisRepository.removeEventsOlderThan(eventId, hashedKey, now.minus(eventTime));
-            long eventAttempts = eventsRedisRepository.getEventsCount(eventId, hashedKey);
-
-            if (eventAttempts >= eventMaxAttempts) {
-                logger.debug("Checking dates");
-                Instant firstDate = eventsRedisRepository.getOldestEvent(eventId, hashedKey);
-                if (firstDate == null) {
-                    logger.info("Event [{}] could be performed [{}/{}]", eventId, eventAttempts, eventMaxAttempts);
-                    response = CanDoResponse.success(eventAttempts);
-                } else {
-                    long millisDifference = ChronoUnit.MILLIS.between(firstDate, now);
-                    response = CanDoResponse.tooMany(Math.max(0, eventTime.toMillis() - millisDifference), eventAttempts);
-                }
+        Event event = findValidEvent(eventId, key);
+        CanDoResponse response = event == null ? CanDoResponse.invalidRequest() : checkEvent(event, key);
+        completeCheck(eventId, event, key, response);
+
+        return response;
+    }
+
+    /**
+     * Request of {@link #canDoEvents(List)}.
+     *
+     * @param eventId Event identifier.
+     * @param key     event execution key.
+     */
+    record CheckRequest(String eventId, String key) {
+    }
+
+    /**
+     * Checks several events at once, as {@link #canDoEvent(String, String)} does. Sliding window and adaptive checks are sent to
+     * the events repository as a single batch, which is one pipelined exchange with Redis; other events are checked one by one.
+     *
+     * @param requests Events and keys to check.
+     * @return responses, in the order of the requests.
+     */
+    List<CanDoResponse> canDoEvents(List<CheckRequest> requests) {
+        CanDoResponse[] responses = new CanDoResponse[requests.size()];
+        Event[] requestEvents = new Event[requests.size()];
+        List<Integer> batchedIndexes = new ArrayList<>();
+        List<WindowQuery> queries = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            CheckRequest request = requests.get(i);
+            Event event = findValidEvent(request.eventId(), request.key());
+            requestEvents[i] = event;
+            if (event == null) {
+                responses[i] = CanDoResponse.invalidRequest();
+            } else if (event.config().type() == EventConfig.Type.SLIDING_WINDOW
+                    || event.config().type() == EventConfig.Type.ADAPTIVE) {
+                batchedIndexes.add(i);
+                queries.add(new WindowQuery(request.eventId(), hashText(request.key()), event.config().minTime()));
             } else {
-                logger.info("Event [{}] could be performed [{}/{}]", eventId, eventAttempts, eventMaxAttempts);
-                response = CanDoResponse.success(eventAttempts);
+                responses[i] = checkEvent(event, request.key());
             }
-        } else {
-            response = CanDoResponse.invalidRequest();
         }
 
+        if (!queries.isEmpty()) {
+            List<WindowCount> counts = eventsRepository.countEventsInWindows(queries);
+            for (int j = 0; j < counts.size(); j++) {
+                int index = batchedIndexes.get(j);
+                Event event = requestEvents[index];
+                responses[index] = slidingWindowResponse(event.config(), slidingWindowMaxAttempts(event), counts.get(j));
+            }
+        }
+        for (int i = 0; i < responses.length; i++) {
+            completeCheck(requests.get(i).eventId(), requestEvents[i], requests.get(i).key(), responses[i]);
+        }
+
+        return List.of(responses);
+    }
+
+    private CanDoResponse checkEvent(Event event, String key) {
+        EventConfig eventConfig = event.config();
+        logger.debug("Event ({}) exists, checking if it could be performed", eventConfig.eventId());
+
+        return switch (eventConfig.type()) {
+            case SLIDING_WINDOW, ADAPTIVE -> canDoSlidingWindowEvent(eventConfig, slidingWindowMaxAttempts(event), key);
+            case APPROXIMATE -> canDoApproximateEvent(eventConfig, key);
+            case CONCURRENCY -> {
+                logger.warn("Invalid request - The eventId [{}] is a concurrency event, use acquire instead", eventConfig.eventId());
+                yield CanDoResponse.invalidRequest();
+            }
+        };
+    }
+
+    private void completeCheck(String eventId, Event event, String key, CanDoResponse response) {
+        recordUsage(event, key, response.canDo(), response.reason());
         if (!response.canDo()) {
             logger.info("The event: {} could NOT be performed. reason: {}. need to wait: {} ms",
                     eventId, response.reason(), response.waitMillis());
         }
+    }
 
-        return response;
+    private long slidingWindowMaxAttempts(Event event) {
+        return event.adaptiveLimit() == null ? event.config().maxAttempts() : event.adaptiveLimit().limit();
     }
 
     /**
@@ -120,19 +260,136 @@ public class RateLimiter implements Closeable {
      */
     public boolean doEvent(String eventId, String key) {
         boolean eventRecorded = false;
-        if (isValidRequest(eventId, key)) {
-            EventConfig eventConfig = eventsConfig.get(eventId);
+        Event event = findValidEvent(eventId, key);
+        if (event != null) {
+            EventConfig eventConfig = event.config();
 
-            eventsRedisRepository.addEvent(eventId, hashText(key), eventConfig.minTime());
-            logger.debug("Event [{}] recorded", eventId);
-            eventRecorded = true;
+            switch (eventConfig.type()) {
+                case SLIDING_WINDOW, ADAPTIVE -> {
+                    eventsRepository.addEvent(eventId, hashText(key), eventConfig.minTime());
+                    eventRecorded = true;
+                }
+                case APPROXIMATE -> {
+                    sketchRedisRepository.addEvent(eventId, sketchHash(key), eventConfig.minTime());
+                    eventRecorded = true;
+                }
+                case CONCURRENCY -> logger.warn("Invalid request - The eventId [{}] is a concurrency event, use acquire instead", eventId);
+            }
+            if (eventRecorded) {
+                logger.debug("Event [{}] recorded", eventId);
+            }
         }
 
         return eventRecorded;
     }
 
     /**
-     * Clear all the event execution for the provided key.
+     * Report the result of an event, to adjust the limit of adaptive events: the limit grows while events are successful and faster
+     * than the policy latency threshold, and backs off otherwise. The limit is shared by all the keys of the event, and kept in
+     * this limiter instance.
+     *
+     * @param eventId Event identifier.
+     * @param key     event execution key.
+     * @param latency Event latency.
+     * @param success If the event was successful.
+     * @return <code>true</code> if the result has been recorded, <code>false</code> if the request is not valid or the event is not
+     * adaptive.
+     */
+    public boolean onComplete(String eventId, String key, Duration latency, boolean success) {
+        boolean recorded = false;
+        Event event = findValidEvent(eventId, key);
+        if (event != null) {
+            AdaptiveLimit adaptiveLimit = event.adaptiveLimit();
+            if (adaptiveLimit == null) {
+                logger.warn("Invalid request - The eventId [{}] is not an adaptive event", eventId);
+            } else {
+                adaptiveLimit.onComplete(latency, success);
+                logger.debug("Event [{}] completed in {} ms, success: {}, limit: {}", eventId, latency.toMillis(), success,
+                        adaptiveLimit.limit());
+                recorded = true;
+            }
+        }
+
+        return recorded;
+    }
+
+    /**
+     * Acquire a permit of a concurrency event, if the configured max permits are not already in flight. The permit must be
+     * released with {@link #release(Permit)} once the event has been done; if its holder crashes, it's reclaimed when the lease
+     * (the event minTime) expires.
+     *
+     * @param eventId Event identifier.
+     * @param key     event execution key.
+     * @return Response object with the acquired permit, or the reason, and wait time until the next lease expiration if it could not
+     * be acquired.
+     */
+    public AcquireResponse acquire(String eventId, String key) {
+        AcquireResponse response;
+        Event event = findValidConcurrencyEvent(eventId, key);
+        if (event != null) {
+            EventConfig eventConfig = event.config();
+            String permitId = UUID.randomUUID().toString();
+            AcquireResult result = permitsRedisRepository.acquire(eventId, hashText(key), permitId, eventConfig.maxAttempts(),
+                    eventConfig.minTime());
+            if (result.acquired()) {
+                logger.debug("Event [{}] permit acquired [{}/{}]", eventId, result.inFlight(), eventConfig.maxAttempts());
+                Instant expiresAt = Instant.ofEpochMilli(result.expiresAtMillis());
+                response = AcquireResponse.success(new Permit(eventId, key, permitId, expiresAt), result.inFlight());
+            } else {
+                response = AcquireResponse.tooMany(result.waitMillis(), result.inFlight());
+            }
+        } else {
+            response = AcquireResponse.invalidRequest();
+        }
+
+        recordUsage(event, key, response.acquired(), response.reason());
+        if (!response.acquired()) {
+            logger.info("The event: {} permit could NOT be acquired. reason: {}. need to wait: {} ms",
+                    eventId, response.reason(), response.waitMillis());
+        }
+
+        return response;
+    }
+
+    /**
+     * Extend the lease of a permit by the event minTime, from now.
+     *
+     * @param permit Permit to renew.
+     * @return renewed permit, or empty if the permit has already been released or reclaimed.
+     */
+    public Optional<Permit> renew(Permit permit) {
+        Permit renewed = null;
+        Event event = findValidConcurrencyEvent(permit.eventId(), permit.key());
+        if (event != null) {
+            Instant expiresAt = permitsRedisRepository.renew(permit.eventId(), hashText(permit.key()), permit.id(),
+                    event.config().minTime());
+            if (expiresAt != null) {
+                renewed = new Permit(permit.eventId(), permit.key(), permit.id(), expiresAt);
+            }
+        }
+
+        return Optional.ofNullable(renewed);
+    }
+
+    /**
+     * Release a permit.
+     *
+     * @param permit Permit to release.
+     * @return <code>true</code> if the permit has been released, <code>false</code> if it was already released or reclaimed.
+     */
+    public boolean release(Permit permit) {
+        boolean released = false;
+        if (findValidConcurrencyEvent(permit.eventId(), permit.key()) != null) {
+            released = permitsRedisRepository.release(permit.eventId(), hashText(permit.key()), permit.id());
+            logger.debug("Event [{}] permit released: {}", permit.eventId(), released);
+        }
+
+        return released;
+    }
+
+    /**
+     * Clear all the event execution for the provided key. Not supported by {@link EventConfig.Type#APPROXIMATE} events, as a
+     * single key cannot be removed from a count-min sketch.
      *
      * @param eventId Event identifier.
      * @param key     event execution key.
@@ -140,23 +397,443 @@ public class RateLimiter implements Closeable {
      */
     public boolean reset(String eventId, String key) {
         boolean eventDeleted = false;
-        if (isValidRequest(eventId, key)) {
-            eventsRedisRepository.remove(eventId, hashText(key));
-            logger.debug("Event [{}] deleted", eventId);
-            eventDeleted = true;
+        Event event = findValidEvent(eventId, key);
+        if (event != null) {
+            if (event.config().type() == EventConfig.Type.APPROXIMATE) {
+                logger.warn("Event [{}] is approximate, single keys cannot be reset", eventId);
+            } else {
+                eventsRepository.remove(eventId, hashText(key));
+                logger.debug("Event [{}] deleted", eventId);
+                eventDeleted = true;
+            }
         }
 
         return eventDeleted;
     }
 
     /**
-     * Get information about an event.
+     * Clear all the event executions of all the keys of an event, and its top keys. Keys are removed in batches with pauses
+     * between them (see {@link RateLimiterOptions#getBulkBatchSize()}), so this call may take a while for events with many keys.
+     *
+     * @param eventId Event identifier.
+     * @return number of removed Redis keys, 0 if the event doesn't exist or the limiter doesn't use Redis.
+     */
+    public long resetAll(String eventId) {
+        long removed = 0;
+        Event event = getEvent(eventId);
+        if (event == null) {
+            logger.warn("Invalid request - The eventId [{}] is not found", eventId);
+            return removed;
+        }
+
+        resetTopKeys(eventId);
+        if (eventsRedisRepository == null) {
+            logger.warn("Event [{}] cannot be reset, bulk operations need Redis", eventId);
+        } else {
+            EventConfig eventConfig = event.config();
+            removed = switch (eventConfig.type()) {
+                case SLIDING_WINDOW, CONCURRENCY, ADAPTIVE ->
+                        eventsRedisRepository.removeAll(eventId, options.getBulkBatchSize(), options.getBulkPause());
+                case APPROXIMATE -> sketchRedisRepository.removeAll(eventId, eventConfig.minTime());
+            };
+            logger.info("Event [{}] reset, {} keys deleted", eventId, removed);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Count the keys with stored event executions of an event. Not supported by {@link EventConfig.Type#APPROXIMATE} events.
+     *
+     * @param eventId Event identifier.
+     * @return number of keys, 0 if the event doesn't exist, is approximate or the limiter doesn't use Redis.
+     */
+    public long countKeys(String eventId) {
+        long count = 0;
+        if (findBulkInspectableEvent(eventId) != null) {
+            count = eventsRedisRepository.countKeys(eventId, options.getBulkBatchSize(), options.getBulkPause());
+        }
+
+        return count;
+    }
+
+    /**
+     * Export the current usage of every key of an event. Not supported by {@link EventConfig.Type#APPROXIMATE} events.
+     *
+     * @param eventId  Event identifier.
+     * @param consumer Receives the hashed key and its number of event executions inside the event window (permits in flight for
+     *                 concurrency events), for every key with at least one execution.
+     */
+    public void exportUsage(String eventId, ObjLongConsumer<String> consumer) {
+        Event event = findBulkInspectableEvent(eventId);
+        if (event != null) {
+            EventConfig eventConfig = event.config();
+            // permits are scored by lease expiration, events by execution time
+            long now = eventsRedisRepository.currentTimeMillis();
+            Instant threshold = Instant.ofEpochMilli(eventConfig.type() == EventConfig.Type.CONCURRENCY
+                    ? now : now - eventConfig.minTime().toMillis());
+            eventsRedisRepository.forEachEventsCount(eventId, threshold, options.getBulkBatchSize(), options.getBulkPause(), consumer);
+        }
+    }
+
+    private Event findBulkInspectableEvent(String eventId) {
+        Event event = getEvent(eventId);
+        if (event == null) {
+            logger.warn("Invalid request - The eventId [{}] is not found", eventId);
+        } else if (event.config().type() == EventConfig.Type.APPROXIMATE) {
+            logger.warn("Event [{}] is approximate, keys cannot be inspected", eventId);
+            event = null;
+        } else if (eventsRedisRepository == null) {
+            logger.warn("Event [{}] keys cannot be inspected, bulk operations need Redis", eventId);
+            event = null;
+        }
+
+        return event;
+    }
+
+    /**
+     * Get information about an event, as configured. For adaptive events, maxAttempts is the upper bound of the limit, see
+     * {@link #currentLimit(String)} for the limit in force.
      *
      * @param eventId Event identifier.
      * @return Event configuration.
      */
     public Optional<EventConfig> getEventConfig(String eventId) {
-        return Optional.ofNullable(eventsConfig.get(eventId));
+        return Optional.ofNullable(getEvent(eventId)).map(Event::config);
+    }
+
+    /**
+     * Get the max attempts currently enforced for an event: the adapted limit for adaptive events, and the configured maxAttempts
+     * for the other types.
+     *
+     * @param eventId Event identifier.
+     * @return current limit, empty if the event doesn't exist.
+     */
+    public OptionalLong currentLimit(String eventId) {
+        Event event = getEvent(eventId);
+        return event == null ? OptionalLong.empty() : OptionalLong.of(slidingWindowMaxAttempts(event));
+    }
+
+    /**
+     * Add an event, or replace the configuration of an existing one, without rebuilding the limiter. Events already recorded are
+     * kept, so changing the type of an existing event should be followed by a {@link #resetAll(String)}.
+     *
+     * @param eventConfig Event configuration.
+     * @throws IllegalArgumentException when the event is not supported by the events repository.
+     */
+    public void putEventConfig(EventConfig eventConfig) {
+        validateEventConfig(eventConfig);
+        events.updateAndGet(current -> {
+            Map<String, Event> updated = new HashMap<>(current);
+            updated.put(eventConfig.eventId(), createEvent(eventConfig, eventConfig, current.get(eventConfig.eventId())));
+            return Map.copyOf(updated);
+        });
+        logger.info("Event [{}] configured: {}", eventConfig.eventId(), eventConfig);
+    }
+
+    /**
+     * Remove an event. Its recorded executions are kept in Redis until they expire.
+     *
+     * @param eventId Event identifier.
+     * @return <code>true</code> if the event was configured, <code>false</code> otherwise.
+     */
+    public boolean removeEventConfig(String eventId) {
+        Objects.requireNonNull(eventId, "eventId must not be null");
+        boolean[] removed = {false};
+        events.updateAndGet(current -> {
+            removed[0] = current.containsKey(eventId);
+            Map<String, Event> updated = new HashMap<>(current);
+            updated.remove(eventId);
+            return Map.copyOf(updated);
+        });
+        if (removed[0]) {
+            logger.info("Event [{}] removed", eventId);
+        }
+
+        return removed[0];
+    }
+
+    /**
+     * Override the configuration of an event, keeping the configuration it has in code (constructor, {@link #putEventConfig} or
+     * {@link #replaceEventConfigs}) so it can be restored with {@link #removeEventOverride(String)}.
+     *
+     * @param eventConfig Event configuration.
+     * @throws IllegalArgumentException when the event is not supported by the events repository.
+     */
+    void overrideEventConfig(EventConfig eventConfig) {
+        validateEventConfig(eventConfig);
+        String eventId = eventConfig.eventId();
+        events.updateAndGet(current -> {
+            Event previous = current.get(eventId);
+            Map<String, Event> updated = new HashMap<>(current);
+            updated.put(eventId, createEvent(eventConfig, previous == null ? null : previous.codeConfig(), previous));
+            return Map.copyOf(updated);
+        });
+        logger.info("Event [{}] overridden: {}", eventId, eventConfig);
+    }
+
+    /**
+     * Remove the override of an event: its code configuration is restored, and events only defined by overrides are removed.
+     *
+     * @param eventId Event identifier.
+     */
+    void removeEventOverride(String eventId) {
+        AtomicReference<EventConfig> restored = new AtomicReference<>();
+        events.updateAndGet(current -> {
+            Event previous = current.get(eventId);
+            EventConfig codeConfig = previous == null ? null : previous.codeConfig();
+            restored.set(codeConfig);
+            Map<String, Event> updated = new HashMap<>(current);
+            if (codeConfig == null) {
+                updated.remove(eventId);
+            } else {
+                updated.put(eventId, createEvent(codeConfig, codeConfig, previous));
+            }
+            return Map.copyOf(updated);
+        });
+        if (restored.get() == null) {
+            logger.info("Event [{}] removed", eventId);
+        } else {
+            logger.info("Event [{}] override removed, code configuration restored: {}", eventId, restored.get());
+        }
+    }
+
+    /**
+     * Replace all the events configuration at once. Events kept keep their in-memory state (adaptive limit, top keys).
+     *
+     * @param eventConfigs Events configuration.
+     * @throws DuplicatedEventKeyException when an event id is duplicated.
+     * @throws IllegalArgumentException    when an event is not supported by the events repository.
+     */
+    public void replaceEventConfigs(EventConfig... eventConfigs) {
+        validateEventsConfig(eventConfigs);
+        events.updateAndGet(current -> Stream.of(eventConfigs).collect(
+                Collectors.toUnmodifiableMap(EventConfig::eventId, cfg -> createEvent(cfg, cfg, current.get(cfg.eventId())))));
+        logger.info("Events configuration replaced, {} events configured", eventConfigs.length);
+    }
+
+    private CanDoResponse canDoSlidingWindowEvent(EventConfig eventConfig, long eventMaxAttempts, String key) {
+        WindowCount window = eventsRepository.countEventsInWindow(eventConfig.eventId(), hashText(key), eventConfig.minTime());
+        return slidingWindowResponse(eventConfig, eventMaxAttempts, window);
+    }
+
+    private CanDoResponse slidingWindowResponse(EventConfig eventConfig, long eventMaxAttempts, WindowCount window) {
+        CanDoResponse response;
+        String eventId = eventConfig.eventId();
+        Duration eventTime = eventConfig.minTime();
+        long eventAttempts = window.count();
+
+        if (eventAttempts >= eventMaxAttempts) {
+            logger.debug("Checking dates");
+            if (window.oldestMillis() < 0) {
+                logger.info("Event [{}] could be performed [{}/{}]", eventId, eventAttempts, eventMaxAttempts);
+                response = CanDoResponse.success(eventAttempts);
+            } else {
+                long millisDifference = window.nowMillis() - window.oldestMillis();
+                response = CanDoResponse.tooMany(Math.max(0, eventTime.toMillis() - millisDifference), eventAttempts);
+            }
+        } else {
+            logger.info("Event [{}] could be performed [{}/{}]", eventId, eventAttempts, eventMaxAttempts);
+            response = CanDoResponse.success(eventAttempts);
+        }
+
+        return response;
+    }
+
+    private CanDoResponse canDoApproximateEvent(EventConfig eventConfig, String key) {
+        String eventId = eventConfig.eventId();
+        long eventMaxAttempts = eventConfig.maxAttempts();
+        Estimate estimate = sketchRedisRepository.estimate(eventId, sketchHash(key), eventConfig.minTime(), eventMaxAttempts);
+
+        CanDoResponse response;
+        if (estimate.count() >= eventMaxAttempts) {
+            response = CanDoResponse.tooMany(estimate.waitMillis(), estimate.count());
+        } else {
+            logger.info("Event [{}] could be performed [~{}/{}]", eventId, estimate.count(), eventMaxAttempts);
+            response = CanDoResponse.success(estimate.count());
+        }
+
+        return response;
+    }
+
+    /**
+     * Hash used to index approximate events. The key never reaches Redis (only counter offsets do), so the HMAC and its cache are
+     * skipped, and the hash is seeded with the secret so offsets cannot be precomputed without it.
+     */
+    private long sketchHash(String key) {
+        return CountMinSketch.hash(sketchSeed, key);
+    }
+
+    /**
+     * Get the keys with most denials for an event, as recorded by the heavy-hitter tracker.
+     *
+     * @param eventId Event identifier.
+     * @param k       Max number of keys to return.
+     * @return key usages sorted by denials, descending. Empty if the event doesn't exist or tracking is disabled.
+     * @see RateLimiterOptions#getHeavyHitterCapacity()
+     */
+    public List<KeyUsage> topKeys(String eventId, int k) {
+        Event event = getEvent(eventId);
+        return event == null || event.heavyHitters() == null ? List.of() : event.heavyHitters().top(k);
+    }
+
+    /**
+     * Forget the attempts and denials recorded by the heavy-hitter tracker of an event, to start {@link #topKeys(String, int)}
+     * from scratch, for example at the start of an incident.
+     *
+     * @param eventId Event identifier.
+     */
+    public void resetTopKeys(String eventId) {
+        Event event = getEvent(eventId);
+        if (event != null && event.heavyHitters() != null) {
+            event.heavyHitters().clear();
+        }
+    }
+
+    /**
+     * Record the outcome of a valid request in the heavy-hitter tracker of the event, if enabled.
+     */
+    private void recordUsage(Event event, String key, boolean allowed, CanDoResponse.Reason reason) {
+        HeavyHitters tracker = event == null ? null : event.heavyHitters();
+        if (tracker != null && reason != CanDoResponse.Reason.INVALID_REQUEST) {
+            tracker.recordAttempt(key);
+            if (!allowed) {
+                tracker.recordDenial(key);
+            }
+        }
+    }
+
+    /**
+     * Get an event from the current configuration snapshot.
+     *
+     * @return the event, or null if not configured.
+     */
+    private Event getEvent(String eventId) {
+        return eventId == null ? null : events.get().get(eventId);
+    }
+
+    /**
+     * Create the runtime state of an event, reusing the state of its previous configuration when still compatible.
+     *
+     * @param eventConfig Event configuration.
+     * @param codeConfig  Configuration defined in code, differs from eventConfig when overridden, null for override only events.
+     * @param previous    Previous event state, may be null.
+     * @return event state.
+     */
+    private Event createEvent(EventConfig eventConfig, EventConfig codeConfig, Event previous) {
+        HeavyHitters heavyHitters = null;
+        if (previous != null && previous.heavyHitters() != null) {
+            heavyHitters = previous.heavyHitters();
+        } else if (options.getHeavyHitterCapacity() > 0) {
+            heavyHitters = new HeavyHitters(options.getHeavyHitterCapacity(), options.getHeavyHitterSketchWidth(),
+                    options.getHeavyHitterSketchDepth(), options.getHeavyHitterWindow(), options.getTimeSource());
+        }
+
+        AdaptiveLimit adaptiveLimit = null;
+        if (eventConfig.type() == EventConfig.Type.ADAPTIVE) {
+            EventConfig previousConfig = previous == null ? null : previous.config();
+            boolean unchanged = previousConfig != null && previousConfig.type() == EventConfig.Type.ADAPTIVE
+                    && previousConfig.maxAttempts() == eventConfig.maxAttempts()
+                    && previousConfig.adaptivePolicy().equals(eventConfig.adaptivePolicy());
+            adaptiveLimit = unchanged ? previous.adaptiveLimit()
+                    : new AdaptiveLimit(eventConfig.maxAttempts(), eventConfig.adaptivePolicy());
+        }
+
+        return new Event(eventConfig, codeConfig, heavyHitters, adaptiveLimit);
+    }
+
+    /**
+     * Configuration and in-memory state of an event.
+     *
+     * @param config        Event configuration.
+     * @param codeConfig    Configuration defined in code, restored when an override is removed, null for override only events.
+     * @param heavyHitters  Top keys tracker, null if disabled.
+     * @param adaptiveLimit Current limit of adaptive events, null for other event types.
+     */
+    private record Event(EventConfig config, EventConfig codeConfig, HeavyHitters heavyHitters, AdaptiveLimit adaptiveLimit) {
+    }
+
+    /**
+     * Prepare the limiter to serve traffic at steady-state latency: opens the pool minIdle connections, loads the Redis scripts
+     * and initializes the hashing instances, instead of doing it lazily on the first calls.
+     */
+    public void warmUp() {
+        long start = System.nanoTime();
+        if (jedisPool != null) {
+            try {
+                jedisPool.preparePool();
+            } catch (Exception e) {
+                logger.warn("Error opening idle connections: {}", e.getMessage());
+            }
+            eventsRedisRepository.loadScripts();
+            permitsRedisRepository.loadScripts();
+            sketchRedisRepository.loadScripts();
+        }
+        hasher.convertToHmacSHA256(HASH_CACHE_FINGERPRINT_TEXT);
+        logger.info("Rate limiter warmed up in {} ms, {} idle connections", (System.nanoTime() - start) / 1_000_000,
+                idleConnections());
+    }
+
+    /**
+     * Idle connections in the Redis pool, 0 without Redis.
+     */
+    int idleConnections() {
+        return jedisPool == null ? 0 : jedisPool.getNumIdle();
+    }
+
+    /**
+     * Whether the Redis scripts are in the server script cache, false without Redis.
+     */
+    boolean scriptsLoaded() {
+        return jedisPool != null && eventsRedisRepository.scriptsLoaded() && permitsRedisRepository.scriptsLoaded()
+                && sketchRedisRepository.scriptsLoaded();
+    }
+
+    /**
+     * Save the hashed keys cache to a snapshot file, to be restored with {@link #loadHashCache(Path)} after a restart. The
+     * snapshot contains the plain keys.
+     *
+     * @param path Snapshot file.
+     * @return number of saved entries.
+     * @throws IOException on write errors.
+     */
+    public int saveHashCache(Path path) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        hashCache.forEach((text, cached) -> entries.put(text, cached.hashed));
+
+        int saved = HashCacheSnapshot.write(path, hashCacheFingerprint(), entries);
+        logger.info("Hash cache saved to {}, {} entries", path, saved);
+        return saved;
+    }
+
+    /**
+     * Restore the hashed keys cache from a snapshot file created by {@link #saveHashCache(Path)}. Snapshots created with a
+     * different hashing secret are ignored. Loaded entries expire as if just used, and are not loaded beyond the max cache entries.
+     *
+     * @param path Snapshot file.
+     * @return number of loaded entries, 0 if the file doesn't exist or is not a valid snapshot.
+     * @throws IOException on read errors.
+     */
+    public int loadHashCache(Path path) throws IOException {
+        int loaded = 0;
+        if (Files.exists(path)) {
+            try {
+                for (Map.Entry<String, String> entry : HashCacheSnapshot.read(path, hashCacheFingerprint()).entrySet()) {
+                    if (cacheHash(entry.getKey(), entry.getValue(), false)) {
+                        loaded++;
+                    }
+                }
+                logger.info("Hash cache loaded from {}, {} entries", path, loaded);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Ignoring hash cache snapshot: {}", e.getMessage());
+            }
+        }
+
+        return loaded;
+    }
+
+    private String hashCacheFingerprint() {
+        return hasher.convertToHmacSHA256(HASH_CACHE_FINGERPRINT_TEXT);
     }
 
     /**
@@ -167,40 +844,149 @@ public class RateLimiter implements Closeable {
      * @see Hasher
      */
     private String hashText(String text) {
-        synchronized (hashCache) {
-            String cachedValue = hashCache.get(text);
-            if (cachedValue != null) {
-                return cachedValue;
+        CachedHash cached = hashCache.get(text);
+        if (cached != null) {
+            cached.lastAccessNanos = System.nanoTime();
+            return cached.hashed;
+        }
+
+        try {
+            String hashed = hasher.convertToHmacSHA256(text);
+            cacheHash(text, hashed, true);
+            return hashed;
+        } catch (Exception e) {
+            logger.warn("Error hashing text, using clear text: {}", e.getMessage());
+            return text;
+        }
+    }
+
+    /**
+     * Add a hashed key to the cache. When full, an entry is evicted first if evict is set, otherwise the key is not added.
+     *
+     * @return <code>true</code> if added.
+     */
+    private boolean cacheHash(String text, String hashed, boolean evict) {
+        boolean added = false;
+        if (evict && hashCache.size() >= options.getHashCacheMaxEntries()) {
+            evictHash();
+        }
+        if (hashCache.size() < options.getHashCacheMaxEntries()) {
+            CachedHash cached = new CachedHash(hashed);
+            added = hashCache.putIfAbsent(text, cached) == null;
+            if (added) {
+                cached.timeout = timingWheel.schedule(() -> expireHash(text, cached), options.getHashCacheTtl());
             }
+        }
 
-            try {
-                String hashed = hasher.convertToHmacSHA256(text);
-                hashCache.put(text, hashed);
-                return hashed;
-            } catch (Exception e) {
-                logger.warn("Error hashing text, using clear text: {}", e.getMessage());
-                return text;
+        return added;
+    }
+
+    /**
+     * Evict the least recently accessed of a few entries, sampled by a cursor sweeping the cache, so an eviction costs the same
+     * whatever the cache size and idle entries go before the hot ones.
+     */
+    private void evictHash() {
+        synchronized (hashCacheEvictionLock) {
+            Map.Entry<String, CachedHash> oldest = null;
+            for (int i = 0; i < HASH_CACHE_EVICTION_SAMPLES; i++) {
+                if (hashCacheEvictionCursor == null || !hashCacheEvictionCursor.hasNext()) {
+                    hashCacheEvictionCursor = hashCache.entrySet().iterator();
+                    if (!hashCacheEvictionCursor.hasNext()) {
+                        break;
+                    }
+                }
+                Map.Entry<String, CachedHash> entry = hashCacheEvictionCursor.next();
+                if (oldest == null || entry.getValue().lastAccessNanos - oldest.getValue().lastAccessNanos < 0) {
+                    oldest = entry;
+                }
+            }
+
+            if (oldest != null && hashCache.remove(oldest.getKey(), oldest.getValue())) {
+                TimingWheel.Timeout timeout = oldest.getValue().timeout;
+                if (timeout != null) {
+                    timeout.cancel();
+                }
             }
         }
     }
 
+    /**
+     * Runs on the timing wheel thread when an entry may have expired. Accesses only record their time, so entries used since they
+     * were scheduled are rescheduled here for the rest of their TTL.
+     */
+    private void expireHash(String text, CachedHash cached) {
+        if (hashCache.get(text) == cached) {
+            long ttlNanos = options.getHashCacheTtl().toNanos();
+            long idleNanos = System.nanoTime() - cached.lastAccessNanos;
+            if (idleNanos >= ttlNanos) {
+                hashCache.remove(text, cached);
+            } else {
+                cached.timeout = timingWheel.schedule(() -> expireHash(text, cached), Duration.ofNanos(ttlNanos - idleNanos));
+            }
+        }
+    }
+
+    /**
+     * Number of entries in the hashed keys cache.
+     */
+    int hashCacheSize() {
+        return hashCache.size();
+    }
+
+    /**
+     * Whether a key is in the hashed keys cache.
+     */
+    boolean hashCached(String text) {
+        return hashCache.containsKey(text);
+    }
+
+    /**
+     * Hashed key cache entry.
+     */
+    private static final class CachedHash {
+
+        private final String hashed;
+        private volatile long lastAccessNanos = System.nanoTime();
+        private volatile TimingWheel.Timeout timeout;
+
+        private CachedHash(String hashed) {
+            this.hashed = hashed;
+        }
+    }
+
     /**
      * Validates the request. Checks if the key is not blank, and the eventId is configured.
+     *
+     * @return the event, or null if the request is not valid.
      */
-    private boolean isValidRequest(String eventId, String key) {
-        boolean valid = false;
+    private Event findValidEvent(String eventId, String key) {
+        Event event = null;
         if (isNotBlank(key)) {
             logger.debug("Checking the existence of event: {}", eventId);
-            if (eventsConfig.containsKey(eventId)) {
-                valid = true;
-            } else {
+            event = getEvent(eventId);
+            if (event == null) {
                 logger.warn("Invalid request - The eventId [{}] is not found", eventId);
             }
         } else {
             logger.warn("Invalid request - The key is blank");
         }
 
-        return valid;
+        return event;
+    }
+
+    /**
+     * Validates the request, and checks the event is a concurrency event.
+     *
+     * @return the event, or null if the request is not valid.
+     */
+    private Event findValidConcurrencyEvent(String eventId, String key) {
+        Event event = findValidEvent(eventId, key);
+        if (event != null && event.config().type() != EventConfig.Type.CONCURRENCY) {
+            logger.warn("Invalid request - The eventId [{}] is not a concurrency event", eventId);
+            event = null;
+        }
+
+        return event;
     }
 
     /**
@@ -216,6 +1002,24 @@ public class RateLimiter implements Closeable {
             if (!keys.add(eventId)) {
                 throw new DuplicatedEventKeyException(eventId);
             }
+            validateEventConfig(cfg);
+        }
+    }
+
+    /**
+     * Validates the event can be limited with the configured repositories.
+     *
+     * @param eventConfig Event config to validate.
+     * @throws IllegalArgumentException when the event is not supported.
+     */
+    private void validateEventConfig(EventConfig eventConfig) {
+        EventConfig.Type type = eventConfig.type();
+        if (jedisPool == null && (type == EventConfig.Type.APPROXIMATE || type == EventConfig.Type.CONCURRENCY)) {
+            throw new IllegalArgumentException("Event [" + eventConfig.eventId() + "] of type " + type + " needs Redis");
+        }
+        if (eventConfig.maxAttempts() > eventsRepository.maxEventsPerKey()) {
+            throw new IllegalArgumentException("Event [" + eventConfig.eventId() + "] maxAttempts exceeds the "
+                    + eventsRepository.maxEventsPerKey() + " events per key stored by the repository");
         }
     }
 
@@ -274,6 +1078,24 @@ public class RateLimiter implements Closeable {
 
     @Override
     public void close() {
-        jedisPool.close();
+        if (options.getHashCacheSnapshot() != null) {
+            try {
+                saveHashCache(options.getHashCacheSnapshot());
+            } catch (IOException e) {
+                logger.warn("Error saving hash cache snapshot: {}", e.getMessage());
+            }
+        }
+        hashCache.values().stream().map(cached -> cached.timeout).filter(Objects::nonNull).forEach(TimingWheel.Timeout::cancel);
+        hashCache.clear();
+        if (jedisPool != null) {
+            jedisPool.close();
+        }
+        if (eventsRepository instanceof Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.warn("Error closing events repository: {}", e.getMessage());
+            }
+        }
     }
 }
@@ -0,0 +1,82 @@
+package org.sputnik.ratelimit.service;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Builder.Default;
+import lombok.Getter;
+import org.sputnik.ratelimit.util.TimeSource;
+
+@Builder
+@Getter
+public class RateLimiterOptions {
+
+  /**
+   * Number of top throttled keys tracked per event, 0 disables heavy-hitter tracking.
+   */
+  @Default
+  private final int heavyHitterCapacity = 0;
+  @Default
+  private final int heavyHitterSketchWidth = 2048;
+  @Default
+  private final int heavyHitterSketchDepth = 4;
+  /**
+   * Time heavy-hitter counts are kept for: top keys reflect the last one to two windows.
+   */
+  @Default
+  private final Duration heavyHitterWindow = Duration.ofMinutes(5);
+  /**
+   * Counters per sketch row for {@link org.sputnik.ratelimit.util.EventConfig.Type#APPROXIMATE} events. Over-counting is bounded
+   * by {@code e / width} times the events seen in the window.
+   */
+  @Default
+  private final int approximateSketchWidth = 1 << 16;
+  @Default
+  private final int approximateSketchDepth = 4;
+  @Default
+  private final int approximateSubWindows = 6;
+  /**
+   * Keys requested per {@code SCAN} call by bulk operations ({@link RateLimiter#resetAll(String)}, ...).
+   */
+  @Default
+  private final int bulkBatchSize = 500;
+  /**
+   * Pause between bulk operation batches, to keep Redis responsive for regular traffic.
+   */
+  @Default
+  private final Duration bulkPause = Duration.ofMillis(10);
+  /**
+   * File used to restore the hashed keys cache on start, and to save it on close, null to disable it. Contains plain keys.
+   *
+   * @see RateLimiter#loadHashCache(Path)
+   */
+  @Default
+  private final Path hashCacheSnapshot = null;
+  /**
+   * Max entries of the hashed keys cache. When full, new keys evict the least recently used of a sample of cached keys.
+   */
+  @Default
+  private final int hashCacheMaxEntries = 10_000;
+  /**
+   * Time without use after which a hashed keys cache entry is removed.
+   */
+  @Default
+  private final Duration hashCacheTtl = Duration.ofMinutes(10);
+
+  /**
+   * Time source for event timestamps, permit leases and sub-windows. A {@link org.sputnik.ratelimit.util.CachedClock} avoids
+   * reading the system clock on every call.
+   */
+  @Default
+  private final TimeSource timeSource = TimeSource.system();
+  /**
+   * Whether to timestamp sliding window events, approximate events and permit leases with the Redis server clock, so windows and
+   * leases are consistent across clients whatever their clock skew. Ignored without Redis.
+   */
+  @Default
+  private final boolean serverTime = false;
+
+  public static RateLimiterOptions defaults() {
+    return builder().build();
+  }
+}
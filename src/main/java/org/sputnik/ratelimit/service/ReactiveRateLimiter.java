@@ -0,0 +1,232 @@
+package org.sputnik.ratelimit.service;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnik.ratelimit.domain.CanDoResponse;
+import org.sputnik.ratelimit.service.RateLimiter.CheckRequest;
+
+/**
+ * Non-blocking facade of a {@link RateLimiter}, based on {@link java.util.concurrent.Flow}. Checks are queued, and a single
+ * background thread sends the checks arriving within the batch window to the limiter as one batch, which is one pipelined Redis
+ * exchange for sliding window and adaptive events. Subscribers are signalled from that thread.
+ *
+ * <p>Every publisher is cold and emits a single response: the check is only queued once the subscriber requests it, and the
+ * queue is bounded, so when the limiter cannot keep up new checks fail with a {@link RejectedExecutionException} instead of
+ * piling up. With Project Reactor, publishers are adapted with {@code JdkFlowAdapter.flowPublisherToFlux(publisher).next()}.</p>
+ *
+ * <p>The limiter is not closed with the facade.</p>
+ */
+public class ReactiveRateLimiter implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReactiveRateLimiter.class);
+  private static final Duration IDLE_POLL = Duration.ofMillis(100);
+  private final RateLimiter rateLimiter;
+  private final Duration batchWindow;
+  private final int maxBatchSize;
+  private final BlockingQueue<CheckSubscription> pending;
+  private final Thread batcher;
+  private volatile boolean closed;
+
+  /**
+   * Constructor. Starts the batching thread.
+   *
+   * @param rateLimiter  Rate limiter.
+   * @param batchWindow  Max time a check waits for others to be batched with.
+   * @param maxBatchSize Max checks per batch, a full batch is sent without waiting for the window.
+   * @param maxPending   Max checks queued, further checks are rejected.
+   */
+  public ReactiveRateLimiter(RateLimiter rateLimiter, Duration batchWindow, int maxBatchSize, int maxPending) {
+    this(rateLimiter, batchWindow, maxBatchSize, new ArrayBlockingQueue<>(maxPending));
+  }
+
+  /**
+   * Constructor with the queue of pending checks, which must be bounded.
+   */
+  ReactiveRateLimiter(RateLimiter rateLimiter, Duration batchWindow, int maxBatchSize, BlockingQueue<CheckSubscription> pending) {
+    this.rateLimiter = Objects.requireNonNull(rateLimiter, "rateLimiter must not be null");
+    this.batchWindow = Objects.requireNonNull(batchWindow, "batchWindow must not be null");
+    if (batchWindow.isNegative()) {
+      throw new IllegalArgumentException("batchWindow must not be negative");
+    }
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be > 0");
+    }
+    this.maxBatchSize = maxBatchSize;
+    this.pending = Objects.requireNonNull(pending, "pending must not be null");
+    batcher = new Thread(this::run, "rate-limiter-batcher");
+    batcher.setDaemon(true);
+    batcher.start();
+  }
+
+  /**
+   * Constructor, with a 1 ms batch window, batches of up to 100 checks and up to 10000 queued checks.
+   *
+   * @param rateLimiter Rate limiter.
+   */
+  public ReactiveRateLimiter(RateLimiter rateLimiter) {
+    this(rateLimiter, Duration.ofMillis(1), 100, 10_000);
+  }
+
+  /**
+   * Checks if the event can be done without exceeding the configured limits.
+   *
+   * @param eventId Event identifier.
+   * @param key     event execution key.
+   * @return Publisher of the response, checked when requested.
+   * @see RateLimiter#canDoEvent(String, String)
+   */
+  public Flow.Publisher<CanDoResponse> canDoEvent(String eventId, String key) {
+    return subscriber -> {
+      Objects.requireNonNull(subscriber, "subscriber must not be null");
+      subscriber.onSubscribe(new CheckSubscription(new CheckRequest(eventId, key), subscriber));
+    };
+  }
+
+  /**
+   * Stop the batching thread. Queued checks fail with an {@link IllegalStateException}.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    batcher.interrupt();
+    failPending();
+  }
+
+  private void run() {
+    List<CheckSubscription> batch = new ArrayList<>(maxBatchSize);
+    while (!closed) {
+      try {
+        CheckSubscription first = pending.poll(IDLE_POLL.toNanos(), TimeUnit.NANOSECONDS);
+        if (first != null) {
+          batch.add(first);
+          fillBatch(batch);
+          process(batch);
+          batch.clear();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    batch.forEach(subscription -> subscription.fail(new IllegalStateException("Reactive rate limiter closed")));
+    failPending();
+  }
+
+  private void fillBatch(List<CheckSubscription> batch) throws InterruptedException {
+    long deadline = System.nanoTime() + batchWindow.toNanos();
+    while (batch.size() < maxBatchSize) {
+      pending.drainTo(batch, maxBatchSize - batch.size());
+      long remaining = deadline - System.nanoTime();
+      if (batch.size() >= maxBatchSize || remaining <= 0) {
+        return;
+      }
+      CheckSubscription next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      batch.add(next);
+    }
+  }
+
+  private void process(List<CheckSubscription> batch) {
+    List<CheckSubscription> requested = batch.stream().filter(CheckSubscription::isRequested).toList();
+    if (!requested.isEmpty()) {
+      List<CanDoResponse> responses;
+      try {
+        responses = rateLimiter.canDoEvents(requested.stream().map(s -> s.request).toList());
+      } catch (RuntimeException e) {
+        logger.warn("Error checking a batch of {} events: {}", requested.size(), e.getMessage());
+        requested.forEach(subscription -> subscription.fail(e));
+        return;
+      }
+      for (int i = 0; i < requested.size(); i++) {
+        requested.get(i).complete(responses.get(i));
+      }
+    }
+  }
+
+  private void failPending() {
+    CheckSubscription subscription;
+    while ((subscription = pending.poll()) != null) {
+      subscription.fail(new IllegalStateException("Reactive rate limiter closed"));
+    }
+  }
+
+  /**
+   * Subscription to a single check. Signals are only sent once, after the first request.
+   */
+  final class CheckSubscription implements Flow.Subscription {
+
+    private static final int NEW = 0;
+    private static final int REQUESTED = 1;
+    private static final int DONE = 2;
+
+    private final CheckRequest request;
+    private final Flow.Subscriber<? super CanDoResponse> subscriber;
+    private final AtomicInteger state = new AtomicInteger(NEW);
+
+    private CheckSubscription(CheckRequest request, Flow.Subscriber<? super CanDoResponse> subscriber) {
+      this.request = request;
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        if (state.compareAndSet(NEW, DONE)) {
+          subscriber.onError(new IllegalArgumentException("Requested items must be > 0, got " + n));
+        }
+      } else if (state.compareAndSet(NEW, REQUESTED)) {
+        if (closed) {
+          fail(new IllegalStateException("Reactive rate limiter closed"));
+        } else if (!pending.offer(this)) {
+          fail(new RejectedExecutionException("Too many pending checks, " + pending.size() + " queued"));
+        } else if (closed && pending.remove(this)) {
+          // closed while offering, after the queue was drained for the last time
+          fail(new IllegalStateException("Reactive rate limiter closed"));
+        }
+      }
+    }
+
+    @Override
+    public void cancel() {
+      state.set(DONE);
+    }
+
+    private boolean isRequested() {
+      return state.get() == REQUESTED;
+    }
+
+    private void complete(CanDoResponse response) {
+      if (state.compareAndSet(REQUESTED, DONE)) {
+        try {
+          subscriber.onNext(response);
+          subscriber.onComplete();
+        } catch (RuntimeException e) {
+          logger.warn("Subscriber error on event [{}] response: {}", request.eventId(), e.getMessage());
+        }
+      }
+    }
+
+    private void fail(Throwable error) {
+      if (state.compareAndSet(REQUESTED, DONE)) {
+        try {
+          subscriber.onError(error);
+        } catch (RuntimeException e) {
+          logger.warn("Subscriber error on event [{}] failure: {}", request.eventId(), e.getMessage());
+        }
+      }
+    }
+  }
+}
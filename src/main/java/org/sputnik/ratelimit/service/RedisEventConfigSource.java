@@ -0,0 +1,210 @@
+package org.sputnik.ratelimit.service;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sputnik.ratelimit.util.AdaptivePolicy;
+import org.sputnik.ratelimit.util.EventConfig;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * Keeps the events of a {@link RateLimiter} in sync with a Redis hash (field = event id). Every change published through this
+ * class is notified on a pub/sub channel named as the hash, and every listening source reloads the hash and applies the
+ * differences to its limiter. Events configured in code and not present in the hash are never touched, and events configured in
+ * code and overridden by the hash get their code configuration back when removed from the hash.
+ *
+ * <p>Values are {@code TYPE;maxAttempts;minTimeMillis}, followed by {@code ;minLimit;latencyThresholdMillis;backoffRatio} for
+ * adaptive events.</p>
+ */
+public class RedisEventConfigSource implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(RedisEventConfigSource.class);
+  private static final String FIELD_SEPARATOR = ";";
+  private static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+  private final JedisPool jedisPool;
+  private final String configKey;
+  private final RateLimiter rateLimiter;
+  private final Map<String, EventConfig> appliedConfigs = new HashMap<>();
+  private final JedisPubSub subscriber = new JedisPubSub() {
+    @Override
+    public void onSubscribe(String channel, int subscribedChannels) {
+      // changes published while not subscribed would be lost otherwise
+      reloadQuietly();
+    }
+
+    @Override
+    public void onMessage(String channel, String message) {
+      reloadQuietly();
+    }
+  };
+  private volatile boolean closed;
+  private Thread listener;
+
+  /**
+   * Constructor.
+   *
+   * @param jedisConf   Jedis configuration.
+   * @param configKey   Redis hash holding the events configuration, also used as pub/sub channel.
+   * @param rateLimiter Rate limiter to configure.
+   */
+  public RedisEventConfigSource(JedisConfiguration jedisConf, String configKey, RateLimiter rateLimiter) {
+    this.jedisPool = jedisConf.createPool();
+    this.configKey = configKey;
+    this.rateLimiter = rateLimiter;
+  }
+
+  /**
+   * Load the events configuration, and start listening for changes in a background thread.
+   */
+  public synchronized void start() {
+    if (listener == null) {
+      reload();
+      listener = new Thread(this::listen, "rate-limiter-config-" + configKey);
+      listener.setDaemon(true);
+      listener.start();
+    }
+  }
+
+  /**
+   * Store an event configuration, and notify all the listening sources.
+   *
+   * @param eventConfig Event configuration.
+   */
+  public void publish(EventConfig eventConfig) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.hset(configKey, eventConfig.eventId(), format(eventConfig));
+      jedis.publish(configKey, eventConfig.eventId());
+    }
+  }
+
+  /**
+   * Remove an event configuration, and notify all the listening sources.
+   *
+   * @param eventId Event identifier.
+   */
+  public void remove(String eventId) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.hdel(configKey, eventId);
+      jedis.publish(configKey, eventId);
+    }
+  }
+
+  /**
+   * Load the events configuration from Redis, and apply the differences with the last loaded one to the rate limiter. Events the
+   * limiter rejects are logged and skipped, and retried on the next reload.
+   */
+  public synchronized void reload() {
+    Map<String, String> values;
+    try (Jedis jedis = jedisPool.getResource()) {
+      values = jedis.hgetAll(configKey);
+    }
+
+    Map<String, EventConfig> loaded = new HashMap<>();
+    values.forEach((eventId, value) -> {
+      try {
+        loaded.put(eventId, parse(eventId, value));
+      } catch (IllegalArgumentException e) {
+        logger.warn("Ignoring invalid configuration of event [{}]: {}", eventId, e.getMessage());
+      }
+    });
+
+    Map<String, EventConfig> applied = new HashMap<>();
+    loaded.forEach((eventId, eventConfig) -> {
+      EventConfig previous = appliedConfigs.get(eventId);
+      if (eventConfig.equals(previous)) {
+        applied.put(eventId, eventConfig);
+      } else {
+        try {
+          rateLimiter.overrideEventConfig(eventConfig);
+          applied.put(eventId, eventConfig);
+        } catch (IllegalArgumentException e) {
+          logger.warn("Ignoring configuration of event [{}] rejected by the rate limiter: {}", eventId, e.getMessage());
+          if (previous != null) {
+            applied.put(eventId, previous);
+          }
+        }
+      }
+    });
+    appliedConfigs.keySet().stream().filter(eventId -> !loaded.containsKey(eventId)).forEach(rateLimiter::removeEventOverride);
+    appliedConfigs.clear();
+    appliedConfigs.putAll(applied);
+  }
+
+  /**
+   * Reload from the subscription callbacks, where an exception would end the subscription.
+   */
+  private void reloadQuietly() {
+    try {
+      reload();
+    } catch (RuntimeException e) {
+      logger.warn("Error reloading events configuration: {}", e.getMessage(), e);
+    }
+  }
+
+  private void listen() {
+    while (!closed) {
+      try (Jedis jedis = jedisPool.getResource()) {
+        jedis.subscribe(subscriber, configKey);
+      } catch (RuntimeException e) {
+        if (!closed) {
+          logger.warn("Events configuration subscription lost, retrying in {} ms: {}", RECONNECT_DELAY.toMillis(), e.getMessage());
+          sleep();
+        }
+      }
+    }
+  }
+
+  private void sleep() {
+    try {
+      TimeUnit.MILLISECONDS.sleep(RECONNECT_DELAY.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closed = true;
+    }
+  }
+
+  static String format(EventConfig eventConfig) {
+    StringBuilder value = new StringBuilder()
+      .append(eventConfig.type()).append(FIELD_SEPARATOR)
+      .append(eventConfig.maxAttempts()).append(FIELD_SEPARATOR)
+      .append(eventConfig.minTime().toMillis());
+    AdaptivePolicy policy = eventConfig.adaptivePolicy();
+    if (policy != null) {
+      value.append(FIELD_SEPARATOR).append(policy.minLimit())
+        .append(FIELD_SEPARATOR).append(policy.latencyThreshold().toMillis())
+        .append(FIELD_SEPARATOR).append(policy.backoffRatio());
+    }
+
+    return value.toString();
+  }
+
+  static EventConfig parse(String eventId, String value) {
+    String[] fields = value.split(FIELD_SEPARATOR);
+    if (fields.length != 3 && fields.length != 6) {
+      throw new IllegalArgumentException("Unexpected number of fields: " + value);
+    }
+    EventConfig.Type type = EventConfig.Type.valueOf(fields[0]);
+    long maxAttempts = Long.parseLong(fields[1]);
+    Duration minTime = Duration.ofMillis(Long.parseLong(fields[2]));
+    AdaptivePolicy policy = fields.length == 6
+      ? new AdaptivePolicy(Long.parseLong(fields[3]), Duration.ofMillis(Long.parseLong(fields[4])), Double.parseDouble(fields[5]))
+      : null;
+
+    return new EventConfig(eventId, maxAttempts, minTime, type, policy);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (subscriber.isSubscribed()) {
+      subscriber.unsubscribe();
+    }
+    jedisPool.close();
+  }
+}
@@ -0,0 +1,54 @@
+package org.sputnik.ratelimit.util;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit adjusted with AIMD (additive increase, multiplicative decrease) from completion feedback. Starts at the max limit, grows by
+ * one for every {@code limit} good completions, and backs off on failed or slow ones. Updates are lock-free.
+ */
+public class AdaptiveLimit {
+
+  private final long maxLimit;
+  private final AdaptivePolicy policy;
+  private final AtomicLong limitBits;
+
+  /**
+   * Constructor.
+   *
+   * @param maxLimit Max (and initial) limit.
+   * @param policy   Adaptive policy.
+   */
+  public AdaptiveLimit(long maxLimit, AdaptivePolicy policy) {
+    if (maxLimit < policy.minLimit()) {
+      throw new IllegalArgumentException("maxLimit must be >= minLimit");
+    }
+    this.maxLimit = maxLimit;
+    this.policy = policy;
+    this.limitBits = new AtomicLong(Double.doubleToLongBits(maxLimit));
+  }
+
+  /**
+   * Get the current limit.
+   *
+   * @return current limit, between the policy minLimit and maxLimit.
+   */
+  public long limit() {
+    return (long) Double.longBitsToDouble(limitBits.get());
+  }
+
+  /**
+   * Adjust the limit with the result of a completed event.
+   *
+   * @param latency Event latency.
+   * @param success If the event was successful.
+   */
+  public void onComplete(Duration latency, boolean success) {
+    boolean overloaded = !success || latency.compareTo(policy.latencyThreshold()) > 0;
+    limitBits.updateAndGet(bits -> {
+      double limit = Double.longBitsToDouble(bits);
+      double next = overloaded ? Math.max(policy.minLimit(), limit * policy.backoffRatio()) : Math.min(maxLimit, limit + 1 / limit);
+      return Double.doubleToLongBits(next);
+    });
+  }
+}
@@ -0,0 +1,28 @@
+package org.sputnik.ratelimit.util;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Immutable adaptive limit policy. The limit grows additively while completions are successful and faster than
+ * latencyThreshold, and is multiplied by backoffRatio on every failed or slow completion, never going below minLimit.
+ */
+public record AdaptivePolicy(long minLimit, Duration latencyThreshold, double backoffRatio) {
+
+  public AdaptivePolicy {
+    if (minLimit <= 0) {
+      throw new IllegalArgumentException("minLimit must be > 0");
+    }
+    Objects.requireNonNull(latencyThreshold, "latencyThreshold");
+    if (latencyThreshold.isZero() || latencyThreshold.isNegative()) {
+      throw new IllegalArgumentException("latencyThreshold must be positive");
+    }
+    if (backoffRatio <= 0 || backoffRatio >= 1) {
+      throw new IllegalArgumentException("backoffRatio must be between 0 and 1 (exclusive)");
+    }
+  }
+
+  public AdaptivePolicy(Duration latencyThreshold) {
+    this(1, latencyThreshold, 0.9);
+  }
+}
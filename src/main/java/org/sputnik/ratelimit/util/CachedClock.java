@@ -0,0 +1,67 @@
+package org.sputnik.ratelimit.util;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coarse-grained time source: a single daemon thread reads the system clock every resolution, and readers get the last value
+ * from a volatile field, without calling the clock.
+ */
+public class CachedClock implements TimeSource, Closeable {
+
+  private final long resolutionNanos;
+  private final Thread updater;
+  private volatile long millis = System.currentTimeMillis();
+  private volatile boolean closed;
+
+  /**
+   * Constructor. Starts the updater thread.
+   *
+   * @param resolution Time between updates, readers may get a time up to this late.
+   */
+  public CachedClock(Duration resolution) {
+    this.resolutionNanos = resolution.toNanos();
+    if (resolutionNanos <= 0) {
+      throw new IllegalArgumentException("resolution must be positive");
+    }
+    updater = new Thread(this::update, "rate-limiter-clock");
+    updater.setDaemon(true);
+    updater.start();
+  }
+
+  /**
+   * Clock shared by the rate limiters, with a 1 ms resolution. It's never closed.
+   *
+   * @return shared clock.
+   */
+  public static CachedClock shared() {
+    return SharedHolder.INSTANCE;
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return millis;
+  }
+
+  /**
+   * Stop the updater thread. The time is not updated anymore.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(updater);
+  }
+
+  private void update() {
+    while (!closed) {
+      millis = System.currentTimeMillis();
+      LockSupport.parkNanos(this, resolutionNanos);
+    }
+  }
+
+  private static final class SharedHolder {
+
+    private static final CachedClock INSTANCE = new CachedClock(Duration.ofMillis(1));
+  }
+}
@@ -0,0 +1,161 @@
+package org.sputnik.ratelimit.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch with lock-free updates. Memory depends only on width and depth, never on the number of distinct items, and
+ * estimates can only over-count: the error is bounded by {@code e / width} times the total count with probability
+ * {@code 1 - e^-depth}.
+ */
+public class CountMinSketch {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private final int width;
+  private final int depth;
+  private final AtomicLongArray counters;
+
+  /**
+   * Constructor.
+   *
+   * @param width Counters per row, rounded up to a power of two.
+   * @param depth Number of rows (independent hash functions).
+   */
+  public CountMinSketch(int width, int depth) {
+    if (width <= 0) {
+      throw new IllegalArgumentException("width must be > 0");
+    }
+    if (depth <= 0) {
+      throw new IllegalArgumentException("depth must be > 0");
+    }
+    this.width = roundUpToPowerOfTwo(width);
+    this.depth = depth;
+    this.counters = new AtomicLongArray(this.width * depth);
+  }
+
+  /**
+   * Increment the counters of an item by one.
+   *
+   * @param item Item to count.
+   * @return new estimated count of the item.
+   */
+  public long add(String item) {
+    return add(hash(item));
+  }
+
+  /**
+   * Increment the counters of an item by one, from its hash, so callers updating several sketches hash the item once.
+   *
+   * @param hash Item hash, see {@link #hash(String)}.
+   * @return new estimated count of the item.
+   */
+  public long add(long hash) {
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counters.incrementAndGet(row * width + index(hash, row, width)));
+    }
+
+    return estimate;
+  }
+
+  /**
+   * Get estimated count of an item.
+   *
+   * @param item Item to look up.
+   * @return estimated count, never lower than the real count.
+   */
+  public long estimate(String item) {
+    return estimate(hash(item));
+  }
+
+  /**
+   * Get estimated count of an item, from its hash.
+   *
+   * @param hash Item hash, see {@link #hash(String)}.
+   * @return estimated count, never lower than the real count.
+   */
+  public long estimate(long hash) {
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counters.get(row * width + index(hash, row, width)));
+    }
+
+    return estimate;
+  }
+
+  /**
+   * Reset all the counters to zero.
+   */
+  public void clear() {
+    for (int i = 0; i < counters.length(); i++) {
+      counters.set(i, 0);
+    }
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public int depth() {
+    return depth;
+  }
+
+  /**
+   * 64-bit hash of a text (FNV-1a over the UTF-8 bytes, finalized with the MurmurHash3 mixer).
+   *
+   * @param text Text to hash.
+   * @return hash value.
+   */
+  public static long hash(String text) {
+    return hash(FNV_OFFSET_BASIS, text);
+  }
+
+  /**
+   * Seeded 64-bit hash of a text. Different seeds give unrelated index sets for the same text.
+   *
+   * @param seed Hash seed.
+   * @param text Text to hash.
+   * @return hash value.
+   */
+  public static long hash(long seed, String text) {
+    long hash = seed;
+    for (byte b : text.getBytes(UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+
+    return hash;
+  }
+
+  /**
+   * Counter index of a hash inside a row, derived with double hashing so one 64-bit hash feeds every row.
+   *
+   * @param hash  Item hash, see {@link #hash(String)}.
+   * @param row   Row number.
+   * @param width Row width, must be a power of two.
+   * @return index inside the row.
+   */
+  public static int index(long hash, int row, int width) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
+    return (h1 + row * h2) & (width - 1);
+  }
+
+  /**
+   * Round a positive value up to the next power of two.
+   *
+   * @param value Positive value.
+   * @return smallest power of two greater or equal than value.
+   */
+  public static int roundUpToPowerOfTwo(int value) {
+    int highest = Integer.highestOneBit(value);
+    return highest == value ? value : highest << 1;
+  }
+}
@@ -4,9 +4,34 @@ import java.time.Duration;
 import java.util.Objects;
 
 /**
- * Immutable event configuration. maxAttempts: max events allowed inside minTime sliding window.
+ * Immutable event configuration. maxAttempts: max events allowed inside minTime sliding window. For
+ * {@link Type#CONCURRENCY} events, maxAttempts is the max permits in flight and minTime the permit lease time. For
+ * {@link Type#ADAPTIVE} events, maxAttempts is the upper bound of the limit adjusted by adaptivePolicy.
  */
-public record EventConfig(String eventId, long maxAttempts, Duration minTime) {
+public record EventConfig(String eventId, long maxAttempts, Duration minTime, Type type, AdaptivePolicy adaptivePolicy) {
+
+  /**
+   * How the events are counted.
+   */
+  public enum Type {
+    /**
+     * Exact sliding window, one Redis sorted set per key.
+     */
+    SLIDING_WINDOW,
+    /**
+     * Approximate sliding window backed by a windowed count-min sketch. Memory doesn't depend on the number of keys, in exchange
+     * counts may be over-estimated and single keys cannot be reset.
+     */
+    APPROXIMATE,
+    /**
+     * Max concurrent events, using permits that are acquired before the event and released after it.
+     */
+    CONCURRENCY,
+    /**
+     * Exact sliding window whose max attempts are adjusted from the latency and errors reported on completion.
+     */
+    ADAPTIVE
+  }
 
   public EventConfig {
     if (eventId == null || eventId.isBlank()) {
@@ -19,5 +44,24 @@ public record EventConfig(String eventId, long maxAttempts, Duration minTime) {
     if (minTime.isZero() || minTime.isNegative()) {
       throw new IllegalArgumentException("minTime must be positive");
     }
+    Objects.requireNonNull(type, "type");
+    if ((type == Type.ADAPTIVE) != (adaptivePolicy != null)) {
+      throw new IllegalArgumentException("adaptivePolicy must be set for, and only for, adaptive events");
+    }
+    if (adaptivePolicy != null && maxAttempts < adaptivePolicy.minLimit()) {
+      throw new IllegalArgumentException("maxAttempts must be >= adaptivePolicy minLimit");
+    }
+  }
+
+  public EventConfig(String eventId, long maxAttempts, Duration minTime, Type type) {
+    this(eventId, maxAttempts, minTime, type, null);
+  }
+
+  public EventConfig(String eventId, long maxAttempts, Duration minTime) {
+    this(eventId, maxAttempts, minTime, Type.SLIDING_WINDOW);
+  }
+
+  public EventConfig(String eventId, long maxAttempts, Duration minTime, AdaptivePolicy adaptivePolicy) {
+    this(eventId, maxAttempts, minTime, Type.ADAPTIVE, adaptivePolicy);
   }
 }
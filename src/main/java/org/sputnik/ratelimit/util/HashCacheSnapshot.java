@@ -0,0 +1,126 @@
+package org.sputnik.ratelimit.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of the plain key to hashed key cache, read and written through memory-mapped files. Hashes are stored as
+ * raw digests, and the snapshot is tagged with a fingerprint of the hashing secret so it's never loaded with a different one.
+ *
+ * <p>Layout: magic, version, fingerprint, entries count, and then for every entry the UTF-8 key and the digest, both length
+ * prefixed. Entries keep the iteration order of the source map.</p>
+ *
+ * <p><strong>Snapshots contain the plain keys</strong>, so they must be stored with the same care as the keys themselves.</p>
+ */
+public final class HashCacheSnapshot {
+
+  private static final int MAGIC = 0x524c4843;
+  private static final int VERSION = 1;
+
+  private HashCacheSnapshot() {
+  }
+
+  /**
+   * Write a snapshot, replacing the existing one atomically. Entries whose key is too long, or whose value is not a Base64 hash,
+   * are skipped.
+   *
+   * @param path        Snapshot file.
+   * @param fingerprint Fingerprint of the hashing secret.
+   * @param entries     Plain key to Base64 hash entries.
+   * @return number of written entries.
+   * @throws IOException on write errors.
+   */
+  public static int write(Path path, String fingerprint, Map<String, String> entries) throws IOException {
+    byte[] fingerprintBytes = fingerprint.getBytes(UTF_8);
+    List<byte[]> keys = new ArrayList<>(entries.size());
+    List<byte[]> digests = new ArrayList<>(entries.size());
+    long size = Integer.BYTES * 3L + Short.BYTES + fingerprintBytes.length;
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      byte[] key = entry.getKey().getBytes(UTF_8);
+      byte[] digest = decode(entry.getValue());
+      if (key.length <= 0xffff && digest != null && digest.length <= 0xff) {
+        keys.add(key);
+        digests.add(digest);
+        size += Short.BYTES + key.length + Byte.BYTES + digest.length;
+      }
+    }
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+      StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+      buffer.putInt(MAGIC).putInt(VERSION);
+      buffer.putShort((short) fingerprintBytes.length).put(fingerprintBytes);
+      buffer.putInt(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        buffer.putShort((short) keys.get(i).length).put(keys.get(i));
+        buffer.put((byte) digests.get(i).length).put(digests.get(i));
+      }
+      buffer.force();
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    return keys.size();
+  }
+
+  /**
+   * Read a snapshot.
+   *
+   * @param path        Snapshot file.
+   * @param fingerprint Fingerprint of the current hashing secret.
+   * @return plain key to Base64 hash entries, in the order they were written.
+   * @throws IOException              on read errors.
+   * @throws IllegalArgumentException if the file is not a valid snapshot, or was written with a different secret.
+   */
+  public static Map<String, String> read(Path path, String fingerprint) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < Integer.BYTES * 2 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IllegalArgumentException("Not a hash cache snapshot: " + path);
+      }
+      if (!fingerprint.equals(new String(getBytes(buffer, Short.toUnsignedInt(buffer.getShort())), UTF_8))) {
+        throw new IllegalArgumentException("Hash cache snapshot created with a different secret: " + path);
+      }
+
+      int count = buffer.getInt();
+      Map<String, String> entries = new LinkedHashMap<>(Math.max(16, count * 4 / 3 + 1));
+      Base64.Encoder encoder = Base64.getEncoder();
+      for (int i = 0; i < count; i++) {
+        String key = new String(getBytes(buffer, Short.toUnsignedInt(buffer.getShort())), UTF_8);
+        entries.put(key, encoder.encodeToString(getBytes(buffer, Byte.toUnsignedInt(buffer.get()))));
+      }
+
+      return entries;
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated hash cache snapshot: " + path, e);
+    }
+  }
+
+  private static byte[] getBytes(MappedByteBuffer buffer, int length) {
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static byte[] decode(String base64) {
+    try {
+      return Base64.getDecoder().decode(base64);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -13,12 +13,18 @@ import javax.crypto.spec.SecretKeySpec;
 public class Hasher {
 
   private final SecretKey key;
+  /**
+   * Initialized instance, cloned for every thread instead of looking up the provider and initializing the key again.
+   */
+  private final Mac prototype;
+  private final ThreadLocal<Mac> threadMac = ThreadLocal.withInitial(this::cloneMacInstance);
 
   /**
    * @param secret secret to use
    */
   public Hasher(String secret) {
     key = new SecretKeySpec(secret.getBytes(UTF_8), "HmacSHA256");
+    prototype = newMacInstance();
   }
 
   /**
@@ -29,12 +35,20 @@ public class Hasher {
    */
   public String convertToHmacSHA256(String text) {
     // Encode the text into bytes using UTF-8 and digest it
-    byte[] digest = newMacInstance().doFinal(text.getBytes(UTF_8));
+    byte[] digest = threadMac.get().doFinal(text.getBytes(UTF_8));
 
     // convert the digest into a string
     return Base64.getEncoder().encodeToString(digest);
   }
 
+  private Mac cloneMacInstance() {
+    try {
+      return (Mac) prototype.clone();
+    } catch (CloneNotSupportedException e) {
+      return newMacInstance();
+    }
+  }
+
   private Mac newMacInstance() {
     Mac newMac;
     try {
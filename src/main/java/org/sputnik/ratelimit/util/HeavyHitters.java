@@ -0,0 +1,226 @@
+package org.sputnik.ratelimit.util;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.sputnik.ratelimit.domain.KeyUsage;
+
+/**
+ * Tracks the keys with most denials using constant memory. Attempts and denials are counted in count-min sketches (lock-free),
+ * and only a bounded set of candidate keys is kept, with their last denial estimate. The candidate set is only modified when a
+ * key's denial estimate beats the smallest one tracked, which is refreshed after every change, so steady-state updates are a
+ * handful of atomic increments and only keys about to enter the set take the lock.
+ *
+ * <p>Counts are windowed with two generations of sketches: every window the current generation becomes the previous one and
+ * the oldest is dropped, so estimates cover the last one to two windows and the sketch error doesn't grow with the uptime.</p>
+ */
+public class HeavyHitters {
+
+  private final int capacity;
+  private final int sketchWidth;
+  private final int sketchDepth;
+  private final long windowMillis;
+  private final TimeSource timeSource;
+  private final Map<String, Candidate> candidates = new ConcurrentHashMap<>();
+  private volatile Generations generations;
+  private volatile long admissionThreshold;
+
+  /**
+   * Constructor, with a 5 minutes window on the system clock.
+   *
+   * @param capacity    Max number of candidate keys tracked.
+   * @param sketchWidth Counters per sketch row.
+   * @param sketchDepth Sketch rows.
+   */
+  public HeavyHitters(int capacity, int sketchWidth, int sketchDepth) {
+    this(capacity, sketchWidth, sketchDepth, Duration.ofMinutes(5), TimeSource.system());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity    Max number of candidate keys tracked.
+   * @param sketchWidth Counters per sketch row.
+   * @param sketchDepth Sketch rows.
+   * @param window      Time each sketch generation is current.
+   * @param timeSource  Clock used to rotate the generations.
+   */
+  public HeavyHitters(int capacity, int sketchWidth, int sketchDepth, Duration window, TimeSource timeSource) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be > 0");
+    }
+    if (window.toMillis() <= 0) {
+      throw new IllegalArgumentException("window must be at least 1 ms");
+    }
+    this.capacity = capacity;
+    this.sketchWidth = sketchWidth;
+    this.sketchDepth = sketchDepth;
+    this.windowMillis = window.toMillis();
+    this.timeSource = timeSource;
+    this.generations = new Generations(newGeneration(), emptyGeneration(), timeSource.currentTimeMillis());
+  }
+
+  /**
+   * Record an attempt for a key.
+   *
+   * @param key Key.
+   */
+  public void recordAttempt(String key) {
+    current().current().attempts().add(CountMinSketch.hash(key));
+  }
+
+  /**
+   * Record a denial for a key.
+   *
+   * @param key Key.
+   */
+  public void recordDenial(String key) {
+    long hash = CountMinSketch.hash(key);
+    Generations current = current();
+    long estimate = current.current().denials().add(hash) + current.previous().denials().estimate(hash);
+    Candidate candidate = candidates.get(key);
+    if (candidate != null) {
+      candidate.denials = estimate;
+    } else if (estimate > admissionThreshold) {
+      admit(key, hash, estimate);
+    }
+  }
+
+  /**
+   * Get the keys with most denials in the last one to two windows.
+   *
+   * @param k Max number of keys to return.
+   * @return key usages sorted by denials, descending.
+   */
+  public List<KeyUsage> top(int k) {
+    Generations current = current();
+    return candidates.entrySet().stream()
+      .map(entry -> new KeyUsage(entry.getKey(), current.attempts(entry.getValue().hash), current.denials(entry.getValue().hash)))
+      .filter(usage -> usage.denials() > 0)
+      .sorted(Comparator.comparingLong(KeyUsage::denials).reversed())
+      .limit(Math.max(0, k))
+      .toList();
+  }
+
+  /**
+   * Forget all the recorded attempts and denials.
+   */
+  public synchronized void clear() {
+    candidates.clear();
+    generations = new Generations(newGeneration(), emptyGeneration(), timeSource.currentTimeMillis());
+    admissionThreshold = 0;
+  }
+
+  /**
+   * Get the current generations, rotating them first if the window is over.
+   */
+  private Generations current() {
+    Generations current = generations;
+    if (timeSource.currentTimeMillis() - current.startMillis() >= windowMillis) {
+      current = rotate();
+    }
+
+    return current;
+  }
+
+  private synchronized Generations rotate() {
+    Generations current = generations;
+    long elapsed = timeSource.currentTimeMillis() - current.startMillis();
+    if (elapsed >= windowMillis) {
+      // the previous generation is only kept if it covers the window right before the new one
+      Generation previous = elapsed < 2 * windowMillis ? current.current() : emptyGeneration();
+      current = new Generations(newGeneration(), previous, current.startMillis() + elapsed / windowMillis * windowMillis);
+      generations = current;
+      Generations rotated = current;
+      candidates.values().forEach(candidate -> candidate.denials = rotated.denials(candidate.hash));
+      candidates.values().removeIf(candidate -> candidate.denials == 0);
+      refreshAdmissionThreshold();
+    }
+
+    return current;
+  }
+
+  private synchronized void admit(String key, long hash, long estimate) {
+    // checked again, the threshold may have been raised while waiting for the lock
+    if (candidates.containsKey(key) || estimate <= admissionThreshold) {
+      return;
+    }
+    if (candidates.size() >= capacity) {
+      Map.Entry<String, Candidate> min = minCandidate();
+      if (min != null && estimate <= min.getValue().denials) {
+        admissionThreshold = min.getValue().denials;
+        return;
+      }
+      if (min != null) {
+        candidates.remove(min.getKey());
+      }
+    }
+    candidates.put(key, new Candidate(hash, estimate));
+    refreshAdmissionThreshold();
+  }
+
+  /**
+   * Set the admission threshold to the smallest candidate estimate, or 0 while there is room for more candidates.
+   */
+  private void refreshAdmissionThreshold() {
+    Map.Entry<String, Candidate> min = candidates.size() < capacity ? null : minCandidate();
+    admissionThreshold = min == null ? 0 : min.getValue().denials;
+  }
+
+  private Map.Entry<String, Candidate> minCandidate() {
+    Map.Entry<String, Candidate> min = null;
+    for (Map.Entry<String, Candidate> entry : candidates.entrySet()) {
+      if (min == null || entry.getValue().denials < min.getValue().denials) {
+        min = entry;
+      }
+    }
+
+    return min;
+  }
+
+  private Generation newGeneration() {
+    return new Generation(new CountMinSketch(sketchWidth, sketchDepth), new CountMinSketch(sketchWidth, sketchDepth));
+  }
+
+  private Generation emptyGeneration() {
+    return new Generation(new CountMinSketch(1, 1), new CountMinSketch(1, 1));
+  }
+
+  /**
+   * Attempts and denials counted during one window.
+   */
+  private record Generation(CountMinSketch attempts, CountMinSketch denials) {
+  }
+
+  /**
+   * Current and previous generations, swapped together so readers always see a consistent pair.
+   *
+   * @param startMillis Start of the current generation window.
+   */
+  private record Generations(Generation current, Generation previous, long startMillis) {
+
+    private long attempts(long hash) {
+      return current.attempts().estimate(hash) + previous.attempts().estimate(hash);
+    }
+
+    private long denials(long hash) {
+      return current.denials().estimate(hash) + previous.denials().estimate(hash);
+    }
+  }
+
+  /**
+   * Tracked key, with its hash and its denial estimate as of its last denial or the last rotation.
+   */
+  private static final class Candidate {
+
+    private final long hash;
+    private volatile long denials;
+
+    private Candidate(long hash, long denials) {
+      this.hash = hash;
+      this.denials = denials;
+    }
+  }
+}
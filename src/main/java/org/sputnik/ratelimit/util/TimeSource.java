@@ -0,0 +1,24 @@
+package org.sputnik.ratelimit.util;
+
+/**
+ * Source of the epoch millis used to timestamp events.
+ */
+@FunctionalInterface
+public interface TimeSource {
+
+  /**
+   * Current time.
+   *
+   * @return epoch millis.
+   */
+  long currentTimeMillis();
+
+  /**
+   * Time source reading the system clock on every call.
+   *
+   * @return system time source.
+   */
+  static TimeSource system() {
+    return System::currentTimeMillis;
+  }
+}
@@ -0,0 +1,301 @@
+package org.sputnik.ratelimit.util;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hierarchical timing wheel, to expire in-memory state in O(1) amortized time per timeout. Timeouts are kept in {@value #LEVELS}
+ * levels of {@value #SLOTS} buckets; every level covers {@value #SLOTS} times the span of the one below, and the buckets of a level
+ * are cascaded to the level below when the wheel reaches them, so every timeout is moved at most once per level.
+ *
+ * <p>All the bookkeeping and the expired tasks run on a single daemon thread. Other threads only append to lock-free queues
+ * ({@link #schedule(Runnable, Duration)} and {@link Timeout#cancel()}), which the wheel thread drains on every tick, with a bound
+ * on the tasks run per tick so a burst of expirations cannot stall the wheel. Tasks must be short and non-blocking.</p>
+ */
+public class TimingWheel implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+  private static final int SLOT_BITS = 6;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int LEVELS = 4;
+  private static final long MAX_DELTA_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+  private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+  private final long tickNanos;
+  private final int maxExpirationsPerTick;
+  private final long startNanos;
+  private final Bucket[][] wheel = new Bucket[LEVELS][SLOTS];
+  private final Bucket ready = new Bucket();
+  private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+  private final Thread worker;
+  private long currentTick;
+  private volatile boolean closed;
+
+  /**
+   * Constructor. Starts the wheel thread.
+   *
+   * @param name                  Wheel thread name.
+   * @param tick                  Wheel resolution, timeouts expire up to one tick late.
+   * @param maxExpirationsPerTick Max tasks run per tick; the remaining ones are run on the next ticks.
+   */
+  public TimingWheel(String name, Duration tick, int maxExpirationsPerTick) {
+    this.tickNanos = tick.toNanos();
+    if (tickNanos <= 0) {
+      throw new IllegalArgumentException("tick must be positive");
+    }
+    if (maxExpirationsPerTick <= 0) {
+      throw new IllegalArgumentException("maxExpirationsPerTick must be > 0");
+    }
+    this.maxExpirationsPerTick = maxExpirationsPerTick;
+    for (Bucket[] level : wheel) {
+      for (int i = 0; i < SLOTS; i++) {
+        level[i] = new Bucket();
+      }
+    }
+    startNanos = System.nanoTime();
+    worker = new Thread(this::run, name);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Wheel shared by the rate limiters, with a 100 ms tick. It's never closed.
+   *
+   * @return shared wheel.
+   */
+  public static TimingWheel shared() {
+    return SharedHolder.INSTANCE;
+  }
+
+  /**
+   * Schedule a task.
+   *
+   * @param task  Task to run on the wheel thread.
+   * @param delay Delay from now.
+   * @return timeout, to cancel the task.
+   */
+  public Timeout schedule(Runnable task, Duration delay) {
+    Objects.requireNonNull(task, "task must not be null");
+    if (closed) {
+      throw new IllegalStateException("Timing wheel is closed");
+    }
+    long elapsedNanos = System.nanoTime() - startNanos + Math.max(0, delay.toNanos());
+    Timeout timeout = new Timeout(this, task, Math.max(1, (elapsedNanos + tickNanos - 1) / tickNanos));
+    pending.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Stop the wheel thread. Pending timeouts never expire.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    worker.interrupt();
+  }
+
+  private void run() {
+    while (!closed) {
+      transferPending();
+      removeCancelled();
+      long targetTick = (System.nanoTime() - startNanos) / tickNanos;
+      while (currentTick < targetTick) {
+        currentTick++;
+        advance();
+      }
+      runReady();
+
+      long sleepNanos = startNanos + (currentTick + 1) * tickNanos - System.nanoTime();
+      if (sleepNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void transferPending() {
+    Timeout timeout;
+    for (int i = 0; i < MAX_TRANSFERS_PER_TICK && (timeout = pending.poll()) != null; i++) {
+      if (timeout.state.get() == Timeout.WAITING) {
+        place(timeout);
+      }
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelled.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  /**
+   * Cascade the higher level buckets reached by the current tick, top-down, and move the level 0 bucket to the ready list.
+   */
+  private void advance() {
+    for (int level = LEVELS - 1; level > 0; level--) {
+      if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+        Bucket bucket = wheel[level][slot(currentTick, level)];
+        for (Timeout timeout = bucket.poll(); timeout != null; timeout = bucket.poll()) {
+          place(timeout);
+        }
+      }
+    }
+
+    Bucket bucket = wheel[0][slot(currentTick, 0)];
+    for (Timeout timeout = bucket.poll(); timeout != null; timeout = bucket.poll()) {
+      place(timeout);
+    }
+  }
+
+  /**
+   * Add a timeout to the level covering its remaining ticks, or to the ready list if due. Timeouts further than the wheel span
+   * are placed in the last bucket they can reach, and placed again from there.
+   */
+  private void place(Timeout timeout) {
+    long delta = timeout.deadlineTick - currentTick;
+    if (delta <= 0) {
+      ready.add(timeout);
+      return;
+    }
+
+    long placementTick = currentTick + Math.min(delta, MAX_DELTA_TICKS);
+    int level = 0;
+    while (level < LEVELS - 1 && (placementTick >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+      level++;
+    }
+    wheel[level][slot(placementTick, level)].add(timeout);
+  }
+
+  private void runReady() {
+    for (int i = 0; i < maxExpirationsPerTick; i++) {
+      Timeout timeout = ready.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+        try {
+          timeout.task.run();
+        } catch (RuntimeException e) {
+          logger.warn("Error running timeout task: {}", e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  private static int slot(long tick, int level) {
+    return (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+  }
+
+  /**
+   * Handle of a scheduled task.
+   */
+  public static final class Timeout {
+
+    private static final int WAITING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final TimingWheel wheel;
+    private final Runnable task;
+    private final long deadlineTick;
+    private final AtomicInteger state = new AtomicInteger(WAITING);
+    // owned by the wheel thread
+    private Bucket bucket;
+    private Timeout prev;
+    private Timeout next;
+
+    private Timeout(TimingWheel wheel, Runnable task, long deadlineTick) {
+      this.wheel = wheel;
+      this.task = task;
+      this.deadlineTick = deadlineTick;
+    }
+
+    /**
+     * Cancel the task, if it has not run yet.
+     *
+     * @return <code>true</code> if cancelled, <code>false</code> if it had already run or been cancelled.
+     */
+    public boolean cancel() {
+      boolean cancel = state.compareAndSet(WAITING, CANCELLED);
+      if (cancel) {
+        wheel.cancelled.add(this);
+      }
+
+      return cancel;
+    }
+
+    public boolean isCancelled() {
+      return state.get() == CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return state.get() == EXPIRED;
+    }
+  }
+
+  /**
+   * Doubly linked list of timeouts, so cancelled ones are removed in O(1). Only used by the wheel thread.
+   */
+  private static final class Bucket {
+
+    private Timeout head;
+    private Timeout tail;
+
+    private void add(Timeout timeout) {
+      timeout.bucket = this;
+      timeout.prev = tail;
+      timeout.next = null;
+      if (tail == null) {
+        head = timeout;
+      } else {
+        tail.next = timeout;
+      }
+      tail = timeout;
+    }
+
+    private void remove(Timeout timeout) {
+      if (timeout.prev == null) {
+        head = timeout.next;
+      } else {
+        timeout.prev.next = timeout.next;
+      }
+      if (timeout.next == null) {
+        tail = timeout.prev;
+      } else {
+        timeout.next.prev = timeout.prev;
+      }
+      timeout.bucket = null;
+      timeout.prev = null;
+      timeout.next = null;
+    }
+
+    private Timeout poll() {
+      Timeout timeout = head;
+      if (timeout != null) {
+        remove(timeout);
+      }
+
+      return timeout;
+    }
+  }
+
+  private static final class SharedHolder {
+
+    private static final TimingWheel INSTANCE = new TimingWheel("rate-limiter-timing-wheel", Duration.ofMillis(100), 10_000);
+  }
+}
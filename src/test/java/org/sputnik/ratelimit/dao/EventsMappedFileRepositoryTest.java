@@ -0,0 +1,182 @@
+package org.sputnik.ratelimit.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EventsMappedFileRepositoryTest {
+
+  private static final String TEST_KEY = RandomStringUtils.insecure().nextAlphanumeric(5);
+
+  private static final String TEST_EVENT_ID = RandomStringUtils.insecure().nextAlphanumeric(5);
+
+  private static final Duration TEST_TIMEOUT = Duration.ofSeconds(10);
+
+  @TempDir
+  Path tempDir;
+
+  private Path file;
+  private EventsMappedFileRepository repository;
+
+  @BeforeEach
+  void init() throws IOException {
+    file = tempDir.resolve("events.bin");
+    repository = new EventsMappedFileRepository(file, 1024, 8);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    repository.close();
+  }
+
+  @Test
+  void testAddEvent() {
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isOne();
+    assertThat(repository.getEventsCount(TEST_EVENT_ID + "-other", TEST_KEY)).isZero();
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY + "-other")).isZero();
+  }
+
+  @Test
+  void testAddEventExpiration() throws InterruptedException {
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, Duration.ofMillis(200));
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isOne();
+    TimeUnit.MILLISECONDS.sleep(300);
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isZero();
+    assertThat(repository.getOldestEvent(TEST_EVENT_ID, TEST_KEY)).isNull();
+  }
+
+  @Test
+  void testAddEventOverCapacity() {
+    for (int i = 0; i < 10; i++) {
+      repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    }
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isEqualTo(8);
+    assertThat(repository.maxEventsPerKey()).isEqualTo(8);
+  }
+
+  @Test
+  void testRemoveEvent() {
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    repository.remove(TEST_EVENT_ID, TEST_KEY);
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isZero();
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isOne();
+  }
+
+  @Test
+  void testGetOldestEvent() throws InterruptedException {
+    long before = System.currentTimeMillis();
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    TimeUnit.MILLISECONDS.sleep(100);
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    Instant oldest = repository.getOldestEvent(TEST_EVENT_ID, TEST_KEY);
+    assertThat(oldest.toEpochMilli()).isBetween(before, before + 99);
+  }
+
+  @Test
+  void testGetOldestEventEmpty() {
+    assertThat(repository.getOldestEvent(TEST_EVENT_ID, TEST_KEY)).isNull();
+  }
+
+  @Test
+  void testRemoveEventsOlderThan() throws InterruptedException {
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    TimeUnit.MILLISECONDS.sleep(50);
+    Instant threshold = Instant.ofEpochMilli(System.currentTimeMillis());
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+
+    assertThat(repository.removeEventsOlderThan(TEST_EVENT_ID, TEST_KEY, threshold)).isEqualTo(2);
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isOne();
+    assertThat(repository.getOldestEvent(TEST_EVENT_ID, TEST_KEY)).isAfterOrEqualTo(threshold);
+  }
+
+  @Test
+  void testReopen() throws IOException {
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    repository.close();
+
+    repository = new EventsMappedFileRepository(file, 1024, 8);
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isEqualTo(2);
+  }
+
+  @Test
+  void testReopenWithDifferentLayout() throws IOException {
+    repository.close();
+    assertThatIllegalArgumentException().isThrownBy(() -> new EventsMappedFileRepository(file, 1024, 16));
+    repository = new EventsMappedFileRepository(file, 1024, 8);
+  }
+
+  @Test
+  void testFileInUse() throws IOException {
+    assertThatIllegalStateException().isThrownBy(() -> new EventsMappedFileRepository(file, 1024, 8))
+      .withMessageContaining("already in use");
+
+    repository.close();
+    repository = new EventsMappedFileRepository(file, 1024, 8);
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isZero();
+  }
+
+  @Test
+  void testInvalidFile() throws IOException {
+    Path invalid = Files.writeString(tempDir.resolve("invalid.bin"), "not an events file");
+    assertThatIllegalArgumentException().isThrownBy(() -> new EventsMappedFileRepository(invalid, 1024, 8));
+  }
+
+  @Test
+  void testManyKeys() throws IOException {
+    repository.close();
+    repository = new EventsMappedFileRepository(file.resolveSibling("many.bin"), 100_000, 4);
+    for (int i = 0; i < 50_000; i++) {
+      repository.addEvent(TEST_EVENT_ID, TEST_KEY + i, TEST_TIMEOUT);
+    }
+    int found = 0;
+    for (int i = 0; i < 50_000; i++) {
+      found += (int) repository.getEventsCount(TEST_EVENT_ID, TEST_KEY + i);
+    }
+    assertThat(found).isEqualTo(50_000);
+  }
+
+  @Test
+  void testFullFileEvictsKeys() throws IOException {
+    repository.close();
+    repository = new EventsMappedFileRepository(file.resolveSibling("small.bin"), 4, 4);
+    for (int i = 0; i < 10; i++) {
+      repository.addEvent(TEST_EVENT_ID, TEST_KEY + i, TEST_TIMEOUT);
+    }
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY + 9)).isOne();
+  }
+
+  @Test
+  void testCountEventsInWindow() throws IOException {
+    AtomicLong now = new AtomicLong(1_000_000);
+    repository.close();
+    repository = new EventsMappedFileRepository(file.resolveSibling("clock.bin"), 1024, 8, now::get);
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    now.addAndGet(500);
+    repository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    now.addAndGet(600);
+
+    WindowCount window = repository.countEventsInWindow(TEST_EVENT_ID, TEST_KEY, Duration.ofSeconds(1));
+    assertThat(window).isEqualTo(new WindowCount(1, 1_000_500, 1_001_100));
+    assertThat(repository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isOne();
+    assertThat(repository.getOldestEventMillis(TEST_EVENT_ID, TEST_KEY)).isEqualTo(1_000_500);
+    assertThat(repository.countEventsInWindow(TEST_EVENT_ID, TEST_KEY + "-other", Duration.ofSeconds(1)))
+      .isEqualTo(new WindowCount(0, -1, 1_001_100));
+  }
+}
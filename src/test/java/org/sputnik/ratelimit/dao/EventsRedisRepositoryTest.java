@@ -1,10 +1,14 @@
 package org.sputnik.ratelimit.dao;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 import com.redis.testcontainers.RedisContainer;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.BeforeAll;
@@ -117,6 +121,84 @@ class EventsRedisRepositoryTest {
     assertThat(eventsRedisRepository.getEventsCount(TEST_EVENT_ID, TEST_KEY)).isEqualTo(2);
   }
 
+  @Test
+  void testRemoveAll() {
+    for (int i = 0; i < 25; i++) {
+      eventsRedisRepository.addEvent(TEST_EVENT_ID, TEST_KEY + i, TEST_TIMEOUT);
+    }
+    eventsRedisRepository.addEvent(TEST_EVENT_ID + "-other", TEST_KEY, TEST_TIMEOUT);
+
+    assertThat(eventsRedisRepository.removeAll(TEST_EVENT_ID, 10, Duration.ofMillis(1))).isEqualTo(25);
+    assertThat(eventsRedisRepository.countKeys(TEST_EVENT_ID, 10, Duration.ZERO)).isZero();
+    assertThat(eventsRedisRepository.countKeys(TEST_EVENT_ID + "-other", 10, Duration.ZERO)).isOne();
+  }
+
+  @Test
+  void testCountKeys() {
+    for (int i = 0; i < 25; i++) {
+      eventsRedisRepository.addEvent(TEST_EVENT_ID, TEST_KEY + i, TEST_TIMEOUT);
+    }
+    assertThat(eventsRedisRepository.countKeys(TEST_EVENT_ID, 10, Duration.ZERO)).isEqualTo(25);
+  }
+
+  @Test
+  void testForEachEventsCount() {
+    String key = eventKey(TEST_EVENT_ID, TEST_KEY);
+    long now = System.currentTimeMillis();
+    redisClient.zadd(key, now - 10_000, "old");
+    redisClient.zadd(key, now, "new");
+    redisClient.zadd(eventKey(TEST_EVENT_ID, "expired"), now - 10_000, "old");
+
+    Map<String, Long> counts = new HashMap<>();
+    eventsRedisRepository.forEachEventsCount(TEST_EVENT_ID, Instant.ofEpochMilli(now - 1_000), 10, Duration.ZERO, counts::put);
+    assertThat(counts).containsExactly(Map.entry(TEST_KEY, 1L));
+  }
+
+  @Test
+  void testCountEventsInWindow() {
+    String key = eventKey(TEST_EVENT_ID, TEST_KEY);
+    long now = System.currentTimeMillis();
+    redisClient.zadd(key, now - 10_000, "old");
+    redisClient.zadd(key, now - 500, "new-1");
+    redisClient.zadd(key, now, "new-2");
+
+    WindowCount window = eventsRedisRepository.countEventsInWindow(TEST_EVENT_ID, TEST_KEY, Duration.ofSeconds(1));
+    assertThat(window.count()).isEqualTo(2);
+    assertThat(window.oldestMillis()).isEqualTo(now - 500);
+    assertThat(redisClient.zcard(key)).isEqualTo(2);
+  }
+
+  @Test
+  void testCountEventsInWindows() {
+    long now = System.currentTimeMillis();
+    redisClient.zadd(eventKey(TEST_EVENT_ID, TEST_KEY), now - 10_000, "old");
+    redisClient.zadd(eventKey(TEST_EVENT_ID, TEST_KEY), now, "new");
+    // pipelined scripts are not loaded on demand, the batch is retried once loaded
+    redisClient.scriptFlush();
+
+    List<WindowCount> windows = eventsRedisRepository.countEventsInWindows(List.of(
+      new WindowQuery(TEST_EVENT_ID, TEST_KEY, Duration.ofSeconds(1)),
+      new WindowQuery(TEST_EVENT_ID, TEST_KEY, Duration.ofMinutes(1)),
+      new WindowQuery(TEST_EVENT_ID, "other", Duration.ofMinutes(1))));
+    assertThat(windows).extracting(WindowCount::count).containsExactly(1L, 1L, 0L);
+    assertThat(windows.get(0).oldestMillis()).isEqualTo(now);
+  }
+
+  @Test
+  void testServerTime() {
+    EventsRedisRepository serverTimeRepository = new EventsRedisRepository(
+      new JedisPool(redis.getRedisHost(), redis.getRedisPort()), () -> 0, true);
+    serverTimeRepository.addEvent(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+
+    // the client clock is stuck at the epoch, the server one is not
+    WindowCount window = serverTimeRepository.countEventsInWindow(TEST_EVENT_ID, TEST_KEY, TEST_TIMEOUT);
+    assertThat(window.count()).isOne();
+    assertThat(window.nowMillis()).isCloseTo(System.currentTimeMillis(), within(5_000L));
+    assertThat(window.oldestMillis()).isBetween(window.nowMillis() - 5_000, window.nowMillis());
+    assertThat(redisClient.pttl(eventKey(TEST_EVENT_ID, TEST_KEY))).isPositive();
+    assertThat(serverTimeRepository.currentTimeMillis()).isCloseTo(System.currentTimeMillis(), within(5_000L));
+  }
+
   private String eventKey(String eventId, String key) {
     return eventId + EventsRedisRepository.KEY_SEPARATOR + key;
   }
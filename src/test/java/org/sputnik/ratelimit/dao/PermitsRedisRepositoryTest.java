@@ -0,0 +1,103 @@
+package org.sputnik.ratelimit.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.redis.testcontainers.RedisContainer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.sputnik.ratelimit.util.TimeSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sputnik.ratelimit.dao.PermitsRedisRepository.AcquireResult;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+@Testcontainers
+class PermitsRedisRepositoryTest {
+
+  private static final String TEST_EVENT_ID = "permitsEvent";
+  private static final String TEST_KEY = "my_test_key";
+  private static final Duration TEST_LEASE = Duration.ofSeconds(10);
+
+  @Container
+  private static final RedisContainer redis = new RedisContainer(DockerImageName.parse("redis:7.4.0"));
+
+  private static PermitsRedisRepository permitsRedisRepository;
+  private static Jedis redisClient;
+
+  @BeforeAll
+  public static void init() {
+    JedisPool jedisPool = new JedisPool(redis.getRedisHost(), redis.getRedisPort());
+    redisClient = jedisPool.getResource();
+    permitsRedisRepository = new PermitsRedisRepository(jedisPool);
+  }
+
+  @BeforeEach
+  public void cleanRedis() {
+    redisClient.flushAll();
+  }
+
+  @Test
+  void testAcquireAndRelease() {
+    assertThat(permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p1", 2, TEST_LEASE).inFlight()).isOne();
+    assertThat(permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p2", 2, TEST_LEASE).acquired()).isTrue();
+
+    AcquireResult rejected = permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p3", 2, TEST_LEASE);
+    assertThat(rejected.acquired()).isFalse();
+    assertThat(rejected.inFlight()).isEqualTo(2);
+    assertThat(rejected.waitMillis()).isPositive().isLessThanOrEqualTo(TEST_LEASE.toMillis());
+
+    assertThat(permitsRedisRepository.release(TEST_EVENT_ID, TEST_KEY, "p1")).isTrue();
+    assertThat(permitsRedisRepository.release(TEST_EVENT_ID, TEST_KEY, "p1")).isFalse();
+    assertThat(permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p3", 2, TEST_LEASE).acquired()).isTrue();
+  }
+
+  @Test
+  void testExpiredLeaseIsReclaimed() throws InterruptedException {
+    Duration lease = Duration.ofMillis(300);
+    assertThat(permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "crashed", 1, lease).acquired()).isTrue();
+    assertThat(permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p2", 1, lease).acquired()).isFalse();
+    TimeUnit.MILLISECONDS.sleep(400);
+    assertThat(permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p2", 1, lease).acquired()).isTrue();
+    assertThat(permitsRedisRepository.release(TEST_EVENT_ID, TEST_KEY, "crashed")).isFalse();
+  }
+
+  @Test
+  void testRenew() throws InterruptedException {
+    Duration lease = Duration.ofMillis(300);
+    permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p1", 1, lease);
+    TimeUnit.MILLISECONDS.sleep(200);
+    assertThat(permitsRedisRepository.renew(TEST_EVENT_ID, TEST_KEY, "p1", lease)).isNotNull();
+    TimeUnit.MILLISECONDS.sleep(200);
+    assertThat(permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p2", 1, lease).acquired()).isFalse();
+    assertThat(permitsRedisRepository.renew(TEST_EVENT_ID, TEST_KEY, "unknown", lease)).isNull();
+  }
+
+  @Test
+  void testServerTimeWithSkewedClock() {
+    JedisPool jedisPool = new JedisPool(redis.getRedisHost(), redis.getRedisPort());
+    TimeSource fastClock = () -> System.currentTimeMillis() + Duration.ofHours(1).toMillis();
+    assertThat(permitsRedisRepository.acquire(TEST_EVENT_ID, TEST_KEY, "p1", 1, TEST_LEASE).acquired()).isTrue();
+
+    PermitsRedisRepository serverTime = new PermitsRedisRepository(jedisPool, fastClock, true);
+    AcquireResult rejected = serverTime.acquire(TEST_EVENT_ID, TEST_KEY, "p2", 1, TEST_LEASE);
+    assertThat(rejected.acquired()).isFalse();
+    assertThat(rejected.waitMillis()).isPositive().isLessThanOrEqualTo(TEST_LEASE.toMillis());
+
+    // with its own clock, a client one hour ahead sees the live lease as expired and reclaims it
+    PermitsRedisRepository skewed = new PermitsRedisRepository(jedisPool, fastClock, false);
+    assertThat(skewed.acquire(TEST_EVENT_ID, TEST_KEY, "p2", 1, TEST_LEASE).acquired()).isTrue();
+
+    AcquireResult acquired = serverTime.acquire(TEST_EVENT_ID, "serverKey", "p1", 1, TEST_LEASE);
+    assertThat(acquired.expiresAtMillis()).isCloseTo(System.currentTimeMillis() + TEST_LEASE.toMillis(), within(5_000L));
+    Instant renewed = serverTime.renew(TEST_EVENT_ID, "serverKey", "p1", TEST_LEASE);
+    assertThat(renewed.toEpochMilli()).isCloseTo(System.currentTimeMillis() + TEST_LEASE.toMillis(), within(5_000L));
+    jedisPool.close();
+  }
+}
@@ -0,0 +1,86 @@
+package org.sputnik.ratelimit.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.redis.testcontainers.RedisContainer;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sputnik.ratelimit.dao.SketchRedisRepository.Estimate;
+import org.sputnik.ratelimit.util.CountMinSketch;
+import org.sputnik.ratelimit.util.TimeSource;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+@Testcontainers
+class SketchRedisRepositoryTest {
+
+  private static final String TEST_EVENT_ID = "sketchEvent";
+  private static final long TEST_KEY_HASH = CountMinSketch.hash("my_test_key");
+  private static final Duration TEST_WINDOW = Duration.ofSeconds(10);
+
+  @Container
+  private static final RedisContainer redis = new RedisContainer(DockerImageName.parse("redis:7.4.0"));
+
+  private static SketchRedisRepository sketchRedisRepository;
+  private static JedisPool jedisPool;
+  private static Jedis redisClient;
+
+  @BeforeAll
+  public static void init() {
+    jedisPool = new JedisPool(redis.getRedisHost(), redis.getRedisPort());
+    redisClient = jedisPool.getResource();
+    sketchRedisRepository = new SketchRedisRepository(jedisPool, 1024, 4, 5);
+  }
+
+  @BeforeEach
+  public void cleanRedis() {
+    redisClient.flushAll();
+  }
+
+  @Test
+  void testEstimateEmpty() {
+    Estimate estimate = sketchRedisRepository.estimate(TEST_EVENT_ID, TEST_KEY_HASH, TEST_WINDOW, 3);
+    assertThat(estimate.count()).isZero();
+    assertThat(estimate.waitMillis()).isZero();
+  }
+
+  @Test
+  void testAddEvent() {
+    sketchRedisRepository.addEvent(TEST_EVENT_ID, TEST_KEY_HASH, TEST_WINDOW);
+    sketchRedisRepository.addEvent(TEST_EVENT_ID, TEST_KEY_HASH, TEST_WINDOW);
+    sketchRedisRepository.addEvent(TEST_EVENT_ID, CountMinSketch.hash("other_key"), TEST_WINDOW);
+
+    Estimate estimate = sketchRedisRepository.estimate(TEST_EVENT_ID, TEST_KEY_HASH, TEST_WINDOW, 2);
+    assertThat(estimate.count()).isEqualTo(2);
+    assertThat(estimate.waitMillis()).isPositive().isLessThanOrEqualTo(TEST_WINDOW.toMillis() + 2_000);
+    assertThat(redisClient.keys(TEST_EVENT_ID + "-*")).hasSize(1);
+  }
+
+  @Test
+  void testEventsExpire() throws InterruptedException {
+    Duration window = Duration.ofMillis(500);
+    sketchRedisRepository.addEvent(TEST_EVENT_ID, TEST_KEY_HASH, window);
+    assertThat(sketchRedisRepository.estimate(TEST_EVENT_ID, TEST_KEY_HASH, window, 1).count()).isOne();
+    TimeUnit.MILLISECONDS.sleep(800);
+    assertThat(sketchRedisRepository.estimate(TEST_EVENT_ID, TEST_KEY_HASH, window, 1).count()).isZero();
+  }
+
+  @Test
+  void testServerTime() {
+    TimeSource skewedClock = () -> System.currentTimeMillis() + TEST_WINDOW.toMillis() * 3;
+    SketchRedisRepository skewedRepository = new SketchRedisRepository(jedisPool, 1024, 4, 5, skewedClock, true);
+    sketchRedisRepository.addEvent(TEST_EVENT_ID, TEST_KEY_HASH, TEST_WINDOW);
+    skewedRepository.addEvent(TEST_EVENT_ID, TEST_KEY_HASH, TEST_WINDOW);
+
+    Estimate estimate = skewedRepository.estimate(TEST_EVENT_ID, TEST_KEY_HASH, TEST_WINDOW, 2);
+    assertThat(estimate.count()).isEqualTo(2);
+    assertThat(estimate.waitMillis()).isPositive().isLessThanOrEqualTo(TEST_WINDOW.toMillis() + 2_000);
+    assertThat(skewedRepository.removeAll(TEST_EVENT_ID, TEST_WINDOW)).isOne();
+  }
+}
@@ -0,0 +1,214 @@
+package org.sputnik.ratelimit.load;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.sputnik.ratelimit.load.LoadReport.EventReport;
+import org.sputnik.ratelimit.service.RateLimiter;
+import org.sputnik.ratelimit.util.EventConfig;
+
+/**
+ * Multi-threaded, multi-instance load generator for {@link RateLimiter}. Reports the throughput, the latency percentiles and the
+ * over-admission of every event, so different backends and event types can be compared under the same load.
+ *
+ * <p>Over-admission is measured after the run, from the client side timestamps of every admission: an admission is over-admitted
+ * when more than maxAttempts admissions of its key fall inside the event window ending at it. For adaptive events maxAttempts is
+ * the upper bound of the limit.</p>
+ */
+@Slf4j
+public final class LoadHarness {
+
+  private LoadHarness() {
+  }
+
+  /**
+   * Run a scenario. Limiters are created before the run and closed after it.
+   *
+   * @param name           Run name.
+   * @param scenario       Load scenario.
+   * @param limiterFactory Creates every limiter instance, all of them sharing the same backend.
+   * @return run report.
+   * @throws InterruptedException if interrupted while waiting for the client threads.
+   */
+  public static LoadReport run(String name, LoadScenario scenario, Supplier<RateLimiter> limiterFactory)
+    throws InterruptedException {
+    List<EventConfig> events = scenario.getEvents();
+    if (events.isEmpty() || events.stream().anyMatch(cfg -> cfg.type() == EventConfig.Type.CONCURRENCY)) {
+      throw new IllegalArgumentException("At least one event is needed, and concurrency events are not supported");
+    }
+
+    List<RateLimiter> limiters = new ArrayList<>();
+    for (int i = 0; i < scenario.getInstances(); i++) {
+      RateLimiter limiter = limiterFactory.get();
+      if (scenario.getWarmUp()) {
+        limiter.warmUp();
+      }
+      limiters.add(limiter);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(scenario.getThreads());
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<ClientResult>> futures = new ArrayList<>();
+      for (int i = 0; i < scenario.getThreads(); i++) {
+        RateLimiter limiter = limiters.get(i % limiters.size());
+        SplittableRandom random = new SplittableRandom(scenario.getSeed() + i);
+        futures.add(executor.submit(() -> runClient(limiter, scenario, random, start)));
+      }
+
+      long startNanos = System.nanoTime();
+      start.countDown();
+      List<ClientResult> results = new ArrayList<>();
+      for (Future<ClientResult> future : futures) {
+        results.add(future.get());
+      }
+      Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+
+      LoadReport report = new LoadReport(name, scenario.getSeed(), elapsed, aggregate(scenario, results));
+      log.info("Load test finished\n{}", report);
+      return report;
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Load test client failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+      limiters.forEach(RateLimiter::close);
+    }
+  }
+
+  private static ClientResult runClient(RateLimiter limiter, LoadScenario scenario, SplittableRandom random,
+    CountDownLatch start) throws InterruptedException {
+    List<EventConfig> events = scenario.getEvents();
+    int operations = scenario.getOperationsPerThread();
+    ClientResult result = new ClientResult(operations);
+    start.await();
+
+    for (int i = 0; i < operations; i++) {
+      int eventIndex = random.nextInt(events.size());
+      int keyIndex = random.nextInt(scenario.getKeys());
+      String eventId = events.get(eventIndex).eventId();
+      String key = "key-" + keyIndex;
+
+      long startNanos = System.nanoTime();
+      boolean admitted = limiter.canDoEvent(eventId, key).canDo() && limiter.doEvent(eventId, key);
+      result.latencies[i] = System.nanoTime() - startNanos;
+      result.eventIndexes[i] = eventIndex;
+      result.keyIndexes[i] = keyIndex;
+      result.admittedAt[i] = admitted ? System.currentTimeMillis() : -1;
+    }
+
+    return result;
+  }
+
+  private static List<EventReport> aggregate(LoadScenario scenario, List<ClientResult> results) {
+    List<EventConfig> events = scenario.getEvents();
+    List<EventReport> reports = new ArrayList<>(events.size());
+    for (int eventIndex = 0; eventIndex < events.size(); eventIndex++) {
+      EventConfig eventConfig = events.get(eventIndex);
+      LongList latencies = new LongList();
+      LongList[] admissions = new LongList[scenario.getKeys()];
+      for (ClientResult result : results) {
+        for (int i = 0; i < result.latencies.length; i++) {
+          if (result.eventIndexes[i] == eventIndex) {
+            latencies.add(result.latencies[i]);
+            if (result.admittedAt[i] >= 0) {
+              int keyIndex = result.keyIndexes[i];
+              if (admissions[keyIndex] == null) {
+                admissions[keyIndex] = new LongList();
+              }
+              admissions[keyIndex].add(result.admittedAt[i]);
+            }
+          }
+        }
+      }
+
+      long admitted = 0;
+      long overAdmitted = 0;
+      for (LongList keyAdmissions : admissions) {
+        if (keyAdmissions != null) {
+          admitted += keyAdmissions.size;
+          overAdmitted += overAdmitted(keyAdmissions.sorted(), eventConfig.maxAttempts(), eventConfig.minTime().toMillis());
+        }
+      }
+
+      long[] sortedLatencies = latencies.sorted();
+      reports.add(new EventReport(eventConfig.eventId(), sortedLatencies.length, admitted, overAdmitted,
+        percentileMicros(sortedLatencies, 0.5), percentileMicros(sortedLatencies, 0.99), percentileMicros(sortedLatencies, 0.999),
+        percentileMicros(sortedLatencies, 1)));
+    }
+
+    return reports;
+  }
+
+  /**
+   * Count the admissions with more than maxAttempts admissions (itself included) in the window ending at them. Uses the same
+   * inclusive lower bound as the limiter.
+   */
+  static long overAdmitted(long[] sortedAdmissions, long maxAttempts, long windowMillis) {
+    long over = 0;
+    int first = 0;
+    for (int i = 0; i < sortedAdmissions.length; i++) {
+      while (sortedAdmissions[first] < sortedAdmissions[i] - windowMillis) {
+        first++;
+      }
+      if (i - first + 1 > maxAttempts) {
+        over++;
+      }
+    }
+
+    return over;
+  }
+
+  private static long percentileMicros(long[] sortedNanos, double percentile) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+    return sortedNanos[Math.max(0, index)] / 1_000;
+  }
+
+  /**
+   * Operations of a client thread, in primitive arrays so recording doesn't disturb the measured latencies.
+   */
+  private static final class ClientResult {
+
+    private final long[] latencies;
+    private final int[] eventIndexes;
+    private final int[] keyIndexes;
+    private final long[] admittedAt;
+
+    private ClientResult(int operations) {
+      latencies = new long[operations];
+      eventIndexes = new int[operations];
+      keyIndexes = new int[operations];
+      admittedAt = new long[operations];
+    }
+  }
+
+  private static final class LongList {
+
+    private long[] values = new long[16];
+    private int size;
+
+    private void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    private long[] sorted() {
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+  }
+}
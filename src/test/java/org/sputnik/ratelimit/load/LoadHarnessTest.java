@@ -0,0 +1,107 @@
+package org.sputnik.ratelimit.load;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sputnik.ratelimit.dao.EventsMappedFileRepository;
+import org.sputnik.ratelimit.load.LoadReport.EventReport;
+import org.sputnik.ratelimit.service.RateLimiter;
+import org.sputnik.ratelimit.service.RateLimiterOptions;
+import org.sputnik.ratelimit.util.AdaptivePolicy;
+import org.sputnik.ratelimit.util.EventConfig;
+
+@Slf4j
+class LoadHarnessTest {
+
+  private static final EventConfig SLIDING_WINDOW = new EventConfig("slidingWindow", 5, Duration.ofMinutes(1));
+  private static final EventConfig ADAPTIVE = new EventConfig("adaptive", 5, Duration.ofMinutes(1),
+    new AdaptivePolicy(Duration.ofSeconds(1)));
+
+  @TempDir
+  Path tempDir;
+
+  private final AtomicInteger files = new AtomicInteger();
+
+  @Test
+  void testOverAdmitted() {
+    assertThat(LoadHarness.overAdmitted(new long[]{0, 10, 20, 30}, 2, 100)).isEqualTo(2);
+    assertThat(LoadHarness.overAdmitted(new long[]{0, 10, 200, 210}, 2, 100)).isZero();
+    assertThat(LoadHarness.overAdmitted(new long[]{0, 100, 200}, 1, 100)).isEqualTo(2);
+    assertThat(LoadHarness.overAdmitted(new long[0], 1, 100)).isZero();
+  }
+
+  @Test
+  void testMappedFileLoad() throws InterruptedException {
+    LoadScenario scenario = LoadScenario.builder()
+      .threads(8)
+      .operationsPerThread(2_000)
+      .keys(10)
+      .event(SLIDING_WINDOW)
+      .event(ADAPTIVE)
+      .build();
+
+    LoadReport report = LoadHarness.run("mapped-file", scenario, this::mappedFileLimiter);
+
+    assertThat(report.operations()).isEqualTo(16_000);
+    assertThat(report.throughput()).isPositive();
+    for (EventReport event : report.events()) {
+      assertThat(event.admitted() - event.overAdmitted()).isLessThanOrEqualTo(10 * 5);
+      assertThat(event.admitted()).isGreaterThanOrEqualTo(10 * 5);
+      assertThat(event.p50Micros()).isLessThanOrEqualTo(event.p99Micros());
+      assertThat(event.p99Micros()).isLessThanOrEqualTo(event.maxMicros());
+    }
+  }
+
+  @Test
+  void testCompareStrategies() throws InterruptedException {
+    LoadScenario contended = LoadScenario.builder().threads(8).operationsPerThread(1_000).keys(1).event(SLIDING_WINDOW).build();
+    LoadScenario spread = LoadScenario.builder().threads(8).operationsPerThread(1_000).keys(1_000).event(SLIDING_WINDOW).build();
+
+    List<LoadReport> reports = List.of(
+      LoadHarness.run("single-key", contended, this::mappedFileLimiter),
+      LoadHarness.run("spread-keys", spread, this::mappedFileLimiter));
+    log.info("Strategies comparison\n{}", LoadReport.format(reports));
+
+    assertThat(reports).extracting(LoadReport::operations).containsOnly(8_000L);
+  }
+
+  @Test
+  void testSeedReplaysRun() throws InterruptedException {
+    LoadScenario scenario = LoadScenario.builder().threads(1).operationsPerThread(2_000).keys(500).event(SLIDING_WINDOW)
+      .seed(42).build();
+
+    LoadReport first = LoadHarness.run("first", scenario, this::mappedFileLimiter);
+    LoadReport second = LoadHarness.run("second", scenario, this::mappedFileLimiter);
+
+    assertThat(first.seed()).isEqualTo(second.seed()).isEqualTo(42);
+    assertThat(first.events().get(0).admitted()).isEqualTo(second.events().get(0).admitted());
+    assertThat(LoadReport.format(List.of(first))).contains(" 42 ");
+  }
+
+  @Test
+  void testConcurrencyEventsNotSupported() {
+    LoadScenario scenario = LoadScenario.builder()
+      .event(new EventConfig("concurrency", 5, Duration.ofMinutes(1), EventConfig.Type.CONCURRENCY))
+      .build();
+    assertThatIllegalArgumentException().isThrownBy(() -> LoadHarness.run("concurrency", scenario, this::mappedFileLimiter));
+  }
+
+  private RateLimiter mappedFileLimiter() {
+    try {
+      EventsMappedFileRepository repository = new EventsMappedFileRepository(
+        tempDir.resolve("events-" + files.incrementAndGet() + ".bin"), 4096, 16);
+      return new RateLimiter(repository, RateLimiterOptions.defaults(), "hashSecret", SLIDING_WINDOW, ADAPTIVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package org.sputnik.ratelimit.load;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Result of a load test run.
+ *
+ * @param name    Run name, usually the strategy under test.
+ * @param seed    Scenario seed, to replay the run.
+ * @param elapsed Run duration.
+ * @param events  Results of every event.
+ */
+public record LoadReport(String name, long seed, Duration elapsed, List<EventReport> events) {
+
+  /**
+   * Result of a load test run for one event.
+   *
+   * @param eventId      Event id.
+   * @param operations   Operations done.
+   * @param admitted     Operations allowed by {@code canDoEvent}, and recorded.
+   * @param overAdmitted Admitted operations that exceeded maxAttempts inside the event window, measured with the admission
+   *                     timestamps of every key.
+   * @param p50Micros    Median operation latency.
+   * @param p99Micros    99th percentile operation latency.
+   * @param p999Micros   99.9th percentile operation latency.
+   * @param maxMicros    Max operation latency.
+   */
+  public record EventReport(String eventId, long operations, long admitted, long overAdmitted, long p50Micros, long p99Micros,
+                            long p999Micros, long maxMicros) {
+
+    public long denied() {
+      return operations - admitted;
+    }
+
+    /**
+     * Over-admission ratio, over the admissions allowed by the limit.
+     */
+    public double overAdmissionRatio() {
+      long allowed = admitted - overAdmitted;
+      return allowed == 0 ? 0 : (double) overAdmitted / allowed;
+    }
+  }
+
+  public long operations() {
+    return events.stream().mapToLong(EventReport::operations).sum();
+  }
+
+  /**
+   * Operations per second, of all the threads and instances.
+   */
+  public double throughput() {
+    return elapsed.isZero() ? 0 : operations() * 1_000_000_000.0 / elapsed.toNanos();
+  }
+
+  /**
+   * Format reports as a text table, one line per run and event, to compare strategies.
+   */
+  public static String format(List<LoadReport> reports) {
+    StringBuilder table = new StringBuilder(String.format(Locale.ROOT,
+      "%-24s %20s %-20s %12s %10s %10s %10s %9s %8s %8s %8s %8s%n",
+      "run", "seed", "event", "ops/s", "ops", "admitted", "over", "over %", "p50 us", "p99 us", "p999 us", "max us"));
+    for (LoadReport report : reports) {
+      for (EventReport event : report.events()) {
+        table.append(String.format(Locale.ROOT, "%-24s %20d %-20s %12.0f %10d %10d %10d %9.3f %8d %8d %8d %8d%n",
+          report.name(), report.seed(), event.eventId(), report.throughput(), event.operations(), event.admitted(),
+          event.overAdmitted(), event.overAdmissionRatio() * 100, event.p50Micros(), event.p99Micros(), event.p999Micros(),
+          event.maxMicros()));
+      }
+    }
+
+    return table.toString();
+  }
+
+  @Override
+  public String toString() {
+    return format(List.of(this));
+  }
+}
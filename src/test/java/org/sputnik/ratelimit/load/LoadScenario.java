@@ -0,0 +1,55 @@
+package org.sputnik.ratelimit.load;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import lombok.Builder;
+import lombok.Builder.Default;
+import lombok.Getter;
+import lombok.Singular;
+import org.sputnik.ratelimit.util.EventConfig;
+
+/**
+ * Load test scenario. Every operation picks a random event and a random key, and does {@code canDoEvent}, followed by
+ * {@code doEvent} when allowed, as a client of the limiter would.
+ */
+@Builder
+@Getter
+public class LoadScenario {
+
+  /**
+   * Client threads, spread round-robin over the limiter instances.
+   */
+  @Default
+  private final int threads = 8;
+  /**
+   * Limiter instances, sharing the same backend.
+   */
+  @Default
+  private final int instances = 1;
+  /**
+   * Operations done by every thread.
+   */
+  @Default
+  private final int operationsPerThread = 10_000;
+  /**
+   * Distinct keys per event. Fewer keys mean more contention on every key.
+   */
+  @Default
+  private final int keys = 100;
+  /**
+   * Events to load, all of them must be configured in the limiters. Concurrency events are not supported.
+   */
+  @Singular
+  private final List<EventConfig> events;
+  /**
+   * Whether to warm up every limiter before starting.
+   */
+  @Default
+  private final boolean warmUp = true;
+  /**
+   * Seed of the events and keys picked by the threads, each thread using {@code seed + threadIndex}. Random by default, and
+   * reported in the {@link LoadReport} to replay a run.
+   */
+  @Default
+  private final long seed = ThreadLocalRandom.current().nextLong();
+}
@@ -0,0 +1,56 @@
+package org.sputnik.ratelimit.load;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.redis.testcontainers.RedisContainer;
+import java.time.Duration;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.sputnik.ratelimit.load.LoadReport.EventReport;
+import org.sputnik.ratelimit.service.JedisConfiguration;
+import org.sputnik.ratelimit.service.RateLimiter;
+import org.sputnik.ratelimit.util.EventConfig;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+@Slf4j
+@Testcontainers(disabledWithoutDocker = true)
+class RedisLoadHarnessTest {
+
+  private static final EventConfig SLIDING_WINDOW = new EventConfig("loadSlidingWindow", 5, Duration.ofMinutes(1));
+  private static final EventConfig APPROXIMATE = new EventConfig("loadApproximate", 5, Duration.ofMinutes(1),
+    EventConfig.Type.APPROXIMATE);
+
+  @Container
+  private static final RedisContainer redis = new RedisContainer(DockerImageName.parse("redis:7.4.0"));
+
+  @Test
+  void testCompareEventTypes() throws InterruptedException {
+    LoadScenario scenario = LoadScenario.builder()
+      .threads(16)
+      .instances(4)
+      .operationsPerThread(500)
+      .keys(20)
+      .event(SLIDING_WINDOW)
+      .event(APPROXIMATE)
+      .build();
+
+    LoadReport report = LoadHarness.run("redis-4-instances", scenario, this::redisLimiter);
+    log.info("Event types comparison\n{}", LoadReport.format(List.of(report)));
+
+    assertThat(report.operations()).isEqualTo(16 * 500);
+    for (EventReport event : report.events()) {
+      assertThat(event.admitted() - event.overAdmitted()).isLessThanOrEqualTo(20 * 5);
+    }
+  }
+
+  private RateLimiter redisLimiter() {
+    JedisConfiguration jedisConf = JedisConfiguration.builder()
+      .host(redis.getRedisHost())
+      .port(redis.getRedisPort())
+      .build();
+    return new RateLimiter(jedisConf, "hashSecret", SLIDING_WINDOW, APPROXIMATE);
+  }
+}
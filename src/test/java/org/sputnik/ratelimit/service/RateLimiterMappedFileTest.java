@@ -0,0 +1,154 @@
+package org.sputnik.ratelimit.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sputnik.ratelimit.dao.EventsMappedFileRepository;
+import org.sputnik.ratelimit.domain.CanDoResponse.Reason;
+import org.sputnik.ratelimit.domain.KeyUsage;
+import org.sputnik.ratelimit.util.AdaptivePolicy;
+import org.sputnik.ratelimit.util.EventConfig;
+
+class RateLimiterMappedFileTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testLimitSurvivesRestart() throws IOException {
+    Path file = tempDir.resolve("events.bin");
+    EventConfig eventConfig = new EventConfig("login", 2, Duration.ofMinutes(1));
+    try (RateLimiter limiter = new RateLimiter(new EventsMappedFileRepository(file, 1024, 16), RateLimiterOptions.defaults(),
+      "hashSecret", eventConfig)) {
+      assertThat(limiter.doEvent("login", "key")).isTrue();
+      assertThat(limiter.doEvent("login", "key")).isTrue();
+      assertThat(limiter.canDoEvent("login", "key").reason()).isEqualTo(Reason.TOO_MANY_EVENTS);
+    }
+
+    try (RateLimiter limiter = new RateLimiter(new EventsMappedFileRepository(file, 1024, 16), RateLimiterOptions.defaults(),
+      "hashSecret", eventConfig)) {
+      assertThat(limiter.canDoEvent("login", "key").reason()).isEqualTo(Reason.TOO_MANY_EVENTS);
+      assertThat(limiter.reset("login", "key")).isTrue();
+      assertThat(limiter.canDoEvent("login", "key").canDo()).isTrue();
+      assertThat(limiter.resetAll("login")).isZero();
+    }
+  }
+
+  @Test
+  void testUnsupportedEvents() throws IOException {
+    EventsMappedFileRepository repository = new EventsMappedFileRepository(tempDir.resolve("events.bin"), 1024, 16);
+    assertThatIllegalArgumentException().isThrownBy(() -> new RateLimiter(repository, RateLimiterOptions.defaults(), "hashSecret",
+      new EventConfig("approximate", 2, Duration.ofMinutes(1), EventConfig.Type.APPROXIMATE)));
+    assertThatIllegalArgumentException().isThrownBy(() -> new RateLimiter(repository, RateLimiterOptions.defaults(), "hashSecret",
+      new EventConfig("tooMany", 17, Duration.ofMinutes(1))));
+
+    try (RateLimiter limiter = new RateLimiter(repository, RateLimiterOptions.defaults(), "hashSecret")) {
+      assertThatIllegalArgumentException().isThrownBy(() -> limiter.putEventConfig(
+        new EventConfig("concurrency", 2, Duration.ofMinutes(1), EventConfig.Type.CONCURRENCY)));
+      assertThat(limiter.getEventConfig("concurrency")).isEmpty();
+    }
+  }
+
+  @Test
+  void testEventOverrides() throws IOException {
+    EventConfig adaptive = new EventConfig("search", 100, Duration.ofSeconds(1), new AdaptivePolicy(1, Duration.ofMillis(100), 0.5));
+    try (RateLimiter limiter = new RateLimiter(new EventsMappedFileRepository(tempDir.resolve("events.bin"), 1024, 128),
+      RateLimiterOptions.defaults(), "hashSecret", adaptive)) {
+      limiter.onComplete("search", "key", Duration.ofMillis(500), false);
+      assertThat(limiter.currentLimit("search")).hasValue(50);
+      assertThat(limiter.getEventConfig("search")).contains(adaptive);
+
+      EventConfig override = new EventConfig("search", 10, Duration.ofSeconds(1), adaptive.adaptivePolicy());
+      limiter.overrideEventConfig(override);
+      limiter.overrideEventConfig(new EventConfig("search", 12, Duration.ofSeconds(1), adaptive.adaptivePolicy()));
+      limiter.overrideEventConfig(new EventConfig("remote", 5, Duration.ofSeconds(1)));
+      assertThat(limiter.currentLimit("search")).hasValue(12);
+
+      limiter.removeEventOverride("search");
+      limiter.removeEventOverride("remote");
+      assertThat(limiter.getEventConfig("search")).contains(adaptive);
+      assertThat(limiter.currentLimit("search")).hasValue(100);
+      assertThat(limiter.getEventConfig("remote")).isEmpty();
+    }
+  }
+
+  @Test
+  void testResetTopKeys() throws IOException {
+    RateLimiterOptions options = RateLimiterOptions.builder().heavyHitterCapacity(5).build();
+    EventConfig eventConfig = new EventConfig("login", 1, Duration.ofMinutes(1));
+    try (RateLimiter limiter = new RateLimiter(new EventsMappedFileRepository(tempDir.resolve("events.bin"), 1024, 16), options,
+      "hashSecret", eventConfig)) {
+      limiter.doEvent("login", "noisy");
+      limiter.canDoEvent("login", "noisy");
+      assertThat(limiter.topKeys("login", 3)).extracting(KeyUsage::key).containsExactly("noisy");
+
+      limiter.resetTopKeys("login");
+      assertThat(limiter.topKeys("login", 3)).isEmpty();
+
+      limiter.canDoEvent("login", "noisy");
+      assertThat(limiter.topKeys("login", 3)).isNotEmpty();
+      limiter.resetAll("login");
+      assertThat(limiter.topKeys("login", 3)).isEmpty();
+    }
+  }
+
+  @Test
+  void testHashCacheExpiration() throws IOException, InterruptedException {
+    RateLimiterOptions options = RateLimiterOptions.builder().hashCacheTtl(Duration.ofMillis(300)).hashCacheMaxEntries(2).build();
+    EventConfig eventConfig = new EventConfig("login", 2, Duration.ofMinutes(1));
+    try (RateLimiter limiter = new RateLimiter(new EventsMappedFileRepository(tempDir.resolve("events.bin"), 1024, 16), options,
+      "hashSecret", eventConfig)) {
+      limiter.canDoEvent("login", "active");
+      limiter.canDoEvent("login", "idle");
+      assertThat(limiter.hashCacheSize()).isEqualTo(2);
+
+      for (int i = 0; i < 6; i++) {
+        TimeUnit.MILLISECONDS.sleep(100);
+        limiter.canDoEvent("login", "active");
+      }
+      assertThat(limiter.hashCacheSize()).isOne();
+      assertThat(limiter.canDoEvent("login", "idle").canDo()).isTrue();
+    }
+  }
+
+  @Test
+  void testHashCacheEviction() throws IOException, InterruptedException {
+    RateLimiterOptions options = RateLimiterOptions.builder().hashCacheMaxEntries(2).build();
+    EventConfig eventConfig = new EventConfig("login", 2, Duration.ofMinutes(1));
+    try (RateLimiter limiter = new RateLimiter(new EventsMappedFileRepository(tempDir.resolve("events.bin"), 1024, 16), options,
+      "hashSecret", eventConfig)) {
+      limiter.canDoEvent("login", "active");
+      limiter.canDoEvent("login", "idle");
+      TimeUnit.MILLISECONDS.sleep(10);
+      limiter.canDoEvent("login", "active");
+
+      limiter.canDoEvent("login", "hot");
+      assertThat(limiter.hashCacheSize()).isEqualTo(2);
+      assertThat(limiter.hashCached("hot")).isTrue();
+      assertThat(limiter.hashCached("active")).isTrue();
+      assertThat(limiter.hashCached("idle")).isFalse();
+    }
+  }
+
+  @Test
+  void testWaitMillisFromTimeSource() throws IOException {
+    AtomicLong now = new AtomicLong(1_000_000);
+    EventConfig eventConfig = new EventConfig("login", 1, Duration.ofSeconds(10));
+    EventsMappedFileRepository repository = new EventsMappedFileRepository(tempDir.resolve("events.bin"), 1024, 16, now::get);
+    try (RateLimiter limiter = new RateLimiter(repository, RateLimiterOptions.builder().timeSource(now::get).build(), "hashSecret",
+      eventConfig)) {
+      assertThat(limiter.doEvent("login", "key")).isTrue();
+      now.addAndGet(4_000);
+      assertThat(limiter.canDoEvent("login", "key").waitMillis()).isEqualTo(6_000);
+      now.addAndGet(6_000);
+      assertThat(limiter.canDoEvent("login", "key").canDo()).isTrue();
+    }
+  }
+}
@@ -5,7 +5,12 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 import com.redis.testcontainers.RedisContainer;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import lombok.SneakyThrows;
@@ -14,13 +19,19 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sputnik.ratelimit.domain.AcquireResponse;
 import org.sputnik.ratelimit.domain.CanDoResponse;
 import org.sputnik.ratelimit.domain.CanDoResponse.Reason;
+import org.sputnik.ratelimit.domain.KeyUsage;
 import org.sputnik.ratelimit.exception.DuplicatedEventKeyException;
+import org.sputnik.ratelimit.util.AdaptivePolicy;
 import org.sputnik.ratelimit.util.EventConfig;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
 
 @Slf4j
 @Testcontainers
@@ -40,7 +51,11 @@ class RateLimiterTest {
       new EventConfig("maxLoginAttempts", 3, Duration.ofSeconds(6)),
       new EventConfig("recurrenceTest", 3, Duration.ofSeconds(10)),
       new EventConfig("logMessageTest", 3, Duration.ofSeconds(2)),
-      new EventConfig("longRecurrenceTest", 1000, Duration.ofSeconds(1))
+      new EventConfig("longRecurrenceTest", 1000, Duration.ofSeconds(1)),
+      new EventConfig("bulkTest", 3, Duration.ofSeconds(60)),
+      new EventConfig("concurrencyTest", 2, Duration.ofSeconds(30), EventConfig.Type.CONCURRENCY),
+      new EventConfig("adaptiveTest", 4, Duration.ofSeconds(30), new AdaptivePolicy(1, Duration.ofMillis(100), 0.5)),
+      new EventConfig("approximateTest", 3, Duration.ofSeconds(2), EventConfig.Type.APPROXIMATE)
     };
 
     vcs = new RateLimiter(redis.getRedisHost(), redis.getRedisPort(), "hashSecret", eventsConfig);
@@ -255,6 +270,192 @@ class RateLimiterTest {
     assertThat(eventConfig).isNotPresent();
   }
 
+  @Test
+  void testApproximateEventFullFlow() throws InterruptedException {
+    String testEventId = "approximateTest";
+    String testKey = "my_approximate_key";
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(vcs.canDoEvent(testEventId, testKey).canDo()).isTrue();
+      assertThat(vcs.doEvent(testEventId, testKey)).isTrue();
+    }
+    CanDoResponse canDoResponse = vcs.canDoEvent(testEventId, testKey);
+    assertThat(canDoResponse.canDo()).isFalse();
+    assertThat(canDoResponse.reason()).isEqualTo(Reason.TOO_MANY_EVENTS);
+    assertThat(canDoResponse.waitMillis()).isPositive();
+    assertThat(vcs.reset(testEventId, testKey)).isFalse();
+
+    // Window plus one sub-window
+    TimeUnit.MILLISECONDS.sleep(2500);
+    assertThat(vcs.canDoEvent(testEventId, testKey).canDo()).isTrue();
+  }
+
+  @Test
+  void testConcurrencyEvent() {
+    String testEventId = "concurrencyTest";
+    String testKey = "my_concurrency_key";
+
+    AcquireResponse first = vcs.acquire(testEventId, testKey);
+    assertThat(first.acquired()).isTrue();
+    assertThat(vcs.acquire(testEventId, testKey).acquired()).isTrue();
+
+    AcquireResponse rejected = vcs.acquire(testEventId, testKey);
+    assertThat(rejected.acquired()).isFalse();
+    assertThat(rejected.reason()).isEqualTo(Reason.TOO_MANY_EVENTS);
+    assertThat(rejected.inFlight()).isEqualTo(2);
+
+    assertThat(vcs.renew(first.permit())).isPresent();
+    assertThat(vcs.release(first.permit())).isTrue();
+    assertThat(vcs.release(first.permit())).isFalse();
+    assertThat(vcs.acquire(testEventId, testKey).acquired()).isTrue();
+  }
+
+  @Test
+  void testConcurrencyEventInvalidRequests() {
+    assertThat(vcs.acquire("testLogin", "This is a test").reason()).isEqualTo(Reason.INVALID_REQUEST);
+    assertThat(vcs.acquire("concurrencyTest", "").reason()).isEqualTo(Reason.INVALID_REQUEST);
+    assertThat(vcs.canDoEvent("concurrencyTest", "This is a test").canDo()).isFalse();
+    assertThat(vcs.doEvent("concurrencyTest", "This is a test")).isFalse();
+  }
+
+  @Test
+  void testAdaptiveEvent() {
+    String testEventId = "adaptiveTest";
+    String testKey = "my_adaptive_key";
+    assertThat(vcs.currentLimit(testEventId)).hasValue(4);
+
+    assertThat(vcs.onComplete(testEventId, testKey, Duration.ofMillis(500), true)).isTrue();
+    assertThat(vcs.currentLimit(testEventId)).hasValue(2);
+    // the configuration keeps the upper bound
+    assertThat(vcs.getEventConfig(testEventId)).map(EventConfig::maxAttempts).contains(4L);
+    assertThat(vcs.currentLimit("non.existing.event")).isEmpty();
+
+    assertThat(vcs.doEvent(testEventId, testKey)).isTrue();
+    assertThat(vcs.canDoEvent(testEventId, testKey).canDo()).isTrue();
+    assertThat(vcs.doEvent(testEventId, testKey)).isTrue();
+    assertThat(vcs.canDoEvent(testEventId, testKey).canDo()).isFalse();
+  }
+
+  @Test
+  void testOnCompleteNotAdaptive() {
+    assertThat(vcs.onComplete("testLogin", "This is a test", Duration.ofMillis(500), false)).isFalse();
+  }
+
+  @Test
+  void testBulkOperations() {
+    String testEventId = "bulkTest";
+    vcs.doEvent(testEventId, "key1");
+    vcs.doEvent(testEventId, "key1");
+    vcs.doEvent(testEventId, "key2");
+
+    assertThat(vcs.countKeys(testEventId)).isEqualTo(2);
+    Map<String, Long> usage = new HashMap<>();
+    vcs.exportUsage(testEventId, usage::put);
+    assertThat(usage.values()).containsExactlyInAnyOrder(2L, 1L);
+
+    assertThat(vcs.resetAll(testEventId)).isEqualTo(2);
+    assertThat(vcs.countKeys(testEventId)).isZero();
+    assertThat(vcs.canDoEvent(testEventId, "key1").eventAttempts()).isZero();
+  }
+
+  @Test
+  void testBulkOperationsNoEventId() {
+    assertThat(vcs.resetAll("IncorrectLogin")).isZero();
+    assertThat(vcs.countKeys("IncorrectLogin")).isZero();
+  }
+
+  @Test
+  void testPutAndRemoveEventConfig() {
+    String testEventId = "runtimeEvent";
+    assertThat(vcs.canDoEvent(testEventId, "my_runtime_key").canDo()).isFalse();
+
+    vcs.putEventConfig(new EventConfig(testEventId, 1, Duration.ofSeconds(10)));
+    assertThat(vcs.canDoEvent(testEventId, "my_runtime_key").canDo()).isTrue();
+    assertThat(vcs.doEvent(testEventId, "my_runtime_key")).isTrue();
+    assertThat(vcs.canDoEvent(testEventId, "my_runtime_key").canDo()).isFalse();
+
+    vcs.putEventConfig(new EventConfig(testEventId, 2, Duration.ofSeconds(10)));
+    assertThat(vcs.canDoEvent(testEventId, "my_runtime_key").canDo()).isTrue();
+
+    assertThat(vcs.removeEventConfig(testEventId)).isTrue();
+    assertThat(vcs.removeEventConfig(testEventId)).isFalse();
+    assertThat(vcs.getEventConfig(testEventId)).isNotPresent();
+  }
+
+  @Test
+  void testReplaceEventConfigs() {
+    JedisConfiguration jedisConf = JedisConfiguration.builder().host(redis.getRedisHost()).port(redis.getRedisPort()).build();
+    try (RateLimiter limiter = new RateLimiter(jedisConf, "hashSecret", new EventConfig("first", 1, Duration.ofSeconds(1)))) {
+      EventConfig second = new EventConfig("second", 1, Duration.ofSeconds(1));
+      limiter.replaceEventConfigs(second);
+      assertThat(limiter.getEventConfig("first")).isNotPresent();
+      assertThat(limiter.getEventConfig("second")).contains(second);
+      assertThatExceptionOfType(DuplicatedEventKeyException.class).isThrownBy(() -> limiter.replaceEventConfigs(second, second));
+      assertThat(limiter.getEventConfig("second")).contains(second);
+    }
+  }
+
+  @Test
+  void testWarmUp() {
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+    poolConfig.setMinIdle(3);
+    JedisConfiguration jedisConf = JedisConfiguration.builder().host(redis.getRedisHost()).port(redis.getRedisPort())
+      .poolConfig(poolConfig).build();
+    try (Jedis jedis = new Jedis(redis.getRedisHost(), redis.getRedisPort());
+         RateLimiter limiter = new RateLimiter(jedisConf, "hashSecret", new EventConfig("warmUp", 1, Duration.ofSeconds(1)))) {
+      jedis.scriptFlush();
+      assertThat(limiter.scriptsLoaded()).isFalse();
+
+      limiter.warmUp();
+
+      assertThat(limiter.idleConnections()).isGreaterThanOrEqualTo(3);
+      assertThat(limiter.scriptsLoaded()).isTrue();
+    }
+  }
+
+  @Test
+  void testHashCacheSnapshot(@TempDir Path tempDir) throws IOException {
+    Path snapshot = tempDir.resolve("hash-cache.bin");
+    RateLimiterOptions options = RateLimiterOptions.builder().hashCacheSnapshot(snapshot).build();
+    JedisConfiguration jedisConf = JedisConfiguration.builder().host(redis.getRedisHost()).port(redis.getRedisPort()).build();
+    EventConfig eventConfig = new EventConfig("snapshotTest", 1, Duration.ofSeconds(10));
+    try (RateLimiter limiter = new RateLimiter(jedisConf, options, "hashSecret", eventConfig)) {
+      limiter.doEvent("snapshotTest", "my_snapshot_key");
+    }
+    assertThat(snapshot).exists();
+
+    try (RateLimiter limiter = new RateLimiter(jedisConf, options, "hashSecret", eventConfig)) {
+      assertThat(limiter.canDoEvent("snapshotTest", "my_snapshot_key").canDo()).isFalse();
+    }
+    try (RateLimiter limiter = new RateLimiter(jedisConf, "otherSecret", eventConfig)) {
+      assertThat(limiter.loadHashCache(snapshot)).isZero();
+    }
+  }
+
+  @Test
+  void testTopKeys() {
+    EventConfig eventConfig = new EventConfig("topKeysTest", 1, Duration.ofSeconds(10));
+    RateLimiterOptions options = RateLimiterOptions.builder().heavyHitterCapacity(10).build();
+    JedisConfiguration jedisConf = JedisConfiguration.builder().host(redis.getRedisHost()).port(redis.getRedisPort()).build();
+    try (RateLimiter limiter = new RateLimiter(jedisConf, options, "hashSecret", eventConfig)) {
+      limiter.doEvent("topKeysTest", "noisy");
+      limiter.doEvent("topKeysTest", "quiet");
+      for (int i = 0; i < 5; i++) {
+        limiter.canDoEvent("topKeysTest", "noisy");
+      }
+      limiter.canDoEvent("topKeysTest", "quiet");
+
+      List<KeyUsage> topKeys = limiter.topKeys("topKeysTest", 1);
+      assertThat(topKeys).extracting(KeyUsage::key).containsExactly("noisy");
+      assertThat(topKeys.get(0).denials()).isGreaterThanOrEqualTo(5);
+    }
+  }
+
+  @Test
+  void testTopKeysDisabled() {
+    assertThat(vcs.topKeys("testLogin", 10)).isEmpty();
+  }
+
   @Test
   void pseudoPerformanceTest() {
     String testEventId = "longRecurrenceTest";
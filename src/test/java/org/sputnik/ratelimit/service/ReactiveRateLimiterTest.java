@@ -0,0 +1,213 @@
+package org.sputnik.ratelimit.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sputnik.ratelimit.dao.EventsMappedFileRepository;
+import org.sputnik.ratelimit.dao.WindowCount;
+import org.sputnik.ratelimit.dao.WindowQuery;
+import org.sputnik.ratelimit.domain.CanDoResponse;
+import org.sputnik.ratelimit.domain.CanDoResponse.Reason;
+import org.sputnik.ratelimit.util.EventConfig;
+
+class ReactiveRateLimiterTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final AtomicInteger batches = new AtomicInteger();
+  private final CountDownLatch batchesReleased = new CountDownLatch(1);
+  private volatile boolean blockBatches;
+  private RateLimiter rateLimiter;
+
+  @BeforeEach
+  void init() throws IOException {
+    EventsMappedFileRepository repository = new EventsMappedFileRepository(tempDir.resolve("events.bin"), 1024, 16) {
+      @Override
+      public List<WindowCount> countEventsInWindows(List<WindowQuery> queries) {
+        batches.incrementAndGet();
+        if (blockBatches) {
+          try {
+            batchesReleased.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        return super.countEventsInWindows(queries);
+      }
+    };
+    rateLimiter = new RateLimiter(repository, RateLimiterOptions.defaults(), "hashSecret",
+      new EventConfig("login", 2, Duration.ofMinutes(1)));
+  }
+
+  @AfterEach
+  void tearDown() {
+    batchesReleased.countDown();
+    rateLimiter.close();
+  }
+
+  @Test
+  void testCanDoEvent() throws Exception {
+    try (ReactiveRateLimiter reactive = new ReactiveRateLimiter(rateLimiter)) {
+      assertThat(check(reactive, "login", "key").get(1, TimeUnit.SECONDS).canDo()).isTrue();
+      rateLimiter.doEvent("login", "key");
+      rateLimiter.doEvent("login", "key");
+      CanDoResponse response = check(reactive, "login", "key").get(1, TimeUnit.SECONDS);
+      assertThat(response.reason()).isEqualTo(Reason.TOO_MANY_EVENTS);
+      assertThat(response.waitMillis()).isPositive();
+      assertThat(check(reactive, "unknown", "key").get(1, TimeUnit.SECONDS).reason()).isEqualTo(Reason.INVALID_REQUEST);
+    }
+  }
+
+  @Test
+  void testChecksAreBatched() throws Exception {
+    try (ReactiveRateLimiter reactive = new ReactiveRateLimiter(rateLimiter, Duration.ofMillis(50), 100, 1_000)) {
+      List<CompletableFuture<CanDoResponse>> responses = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        responses.add(check(reactive, "login", "key-" + i));
+      }
+      CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).get(2, TimeUnit.SECONDS);
+
+      assertThat(responses).allMatch(response -> response.join().canDo());
+      assertThat(batches.get()).isLessThan(10);
+    }
+  }
+
+  @Test
+  void testNoSignalsBeforeRequest() throws Exception {
+    try (ReactiveRateLimiter reactive = new ReactiveRateLimiter(rateLimiter)) {
+      TestSubscriber subscriber = new TestSubscriber();
+      reactive.canDoEvent("login", "key").subscribe(subscriber);
+      TimeUnit.MILLISECONDS.sleep(50);
+      assertThat(subscriber.result).isNotDone();
+      assertThat(batches).hasValue(0);
+
+      subscriber.subscription.request(1);
+      assertThat(subscriber.result.get(1, TimeUnit.SECONDS).canDo()).isTrue();
+    }
+  }
+
+  @Test
+  void testCancel() throws Exception {
+    try (ReactiveRateLimiter reactive = new ReactiveRateLimiter(rateLimiter)) {
+      TestSubscriber subscriber = new TestSubscriber();
+      reactive.canDoEvent("login", "key").subscribe(subscriber);
+      subscriber.subscription.cancel();
+      subscriber.subscription.request(1);
+      TimeUnit.MILLISECONDS.sleep(50);
+      assertThat(subscriber.result).isNotDone();
+      assertThat(batches).hasValue(0);
+    }
+  }
+
+  @Test
+  void testInvalidRequest() {
+    try (ReactiveRateLimiter reactive = new ReactiveRateLimiter(rateLimiter)) {
+      TestSubscriber subscriber = new TestSubscriber();
+      reactive.canDoEvent("login", "key").subscribe(subscriber);
+      subscriber.subscription.request(0);
+      assertThat(subscriber.result).isCompletedExceptionally();
+    }
+  }
+
+  @Test
+  void testBackPressure() throws Exception {
+    blockBatches = true;
+    try (ReactiveRateLimiter reactive = new ReactiveRateLimiter(rateLimiter, Duration.ZERO, 1, 1)) {
+      CompletableFuture<CanDoResponse> inFlight = check(reactive, "login", "key-1");
+      while (batches.get() == 0) {
+        TimeUnit.MILLISECONDS.sleep(1);
+      }
+      CompletableFuture<CanDoResponse> queued = check(reactive, "login", "key-2");
+      CompletableFuture<CanDoResponse> rejected = check(reactive, "login", "key-3");
+
+      assertThat(rejected).failsWithin(Duration.ofSeconds(1)).withThrowableOfType(Exception.class)
+        .withCauseInstanceOf(RejectedExecutionException.class);
+      batchesReleased.countDown();
+      assertThat(inFlight.get(1, TimeUnit.SECONDS).canDo()).isTrue();
+      assertThat(queued.get(1, TimeUnit.SECONDS).canDo()).isTrue();
+    }
+  }
+
+  @Test
+  void testClose() {
+    ReactiveRateLimiter reactive = new ReactiveRateLimiter(rateLimiter);
+    reactive.close();
+    assertThat(check(reactive, "login", "key")).failsWithin(Duration.ofSeconds(1)).withThrowableOfType(Exception.class)
+      .withCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void testCloseWhileRequesting() {
+    AtomicReference<ReactiveRateLimiter> reactive = new AtomicReference<>();
+    BlockingQueue<ReactiveRateLimiter.CheckSubscription> pending = new ArrayBlockingQueue<>(10) {
+      @Override
+      public boolean offer(ReactiveRateLimiter.CheckSubscription subscription) {
+        // closed after the request saw it open, the check is queued once the batcher is gone
+        reactive.get().close();
+        try {
+          TimeUnit.MILLISECONDS.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.offer(subscription);
+      }
+    };
+    reactive.set(new ReactiveRateLimiter(rateLimiter, Duration.ofMillis(1), 100, pending));
+
+    assertThat(check(reactive.get(), "login", "key")).failsWithin(Duration.ofSeconds(1)).withThrowableOfType(Exception.class)
+      .withCauseInstanceOf(IllegalStateException.class);
+    assertThat(pending).isEmpty();
+  }
+
+  private static CompletableFuture<CanDoResponse> check(ReactiveRateLimiter reactive, String eventId, String key) {
+    TestSubscriber subscriber = new TestSubscriber();
+    reactive.canDoEvent(eventId, key).subscribe(subscriber);
+    subscriber.subscription.request(1);
+    return subscriber.result;
+  }
+
+  private static final class TestSubscriber implements Flow.Subscriber<CanDoResponse> {
+
+    private final CompletableFuture<CanDoResponse> result = new CompletableFuture<>();
+    private CanDoResponse response;
+    private Flow.Subscription subscription;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(CanDoResponse item) {
+      response = item;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      result.complete(response);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package org.sputnik.ratelimit.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import com.redis.testcontainers.RedisContainer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sputnik.ratelimit.dao.EventsMappedFileRepository;
+import org.sputnik.ratelimit.util.AdaptivePolicy;
+import org.sputnik.ratelimit.util.EventConfig;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+@Testcontainers
+class RedisEventConfigSourceTest {
+
+  @Container
+  private static final RedisContainer redis = new RedisContainer(DockerImageName.parse("redis:7.4.0"));
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testFormatAndParse() {
+    EventConfig window = new EventConfig("login", 3, Duration.ofSeconds(3600));
+    EventConfig adaptive = new EventConfig("search", 100, Duration.ofSeconds(1), new AdaptivePolicy(5, Duration.ofMillis(200), 0.8));
+
+    assertThat(RedisEventConfigSource.format(window)).isEqualTo("SLIDING_WINDOW;3;3600000");
+    assertThat(RedisEventConfigSource.parse("login", RedisEventConfigSource.format(window))).isEqualTo(window);
+    assertThat(RedisEventConfigSource.parse("search", RedisEventConfigSource.format(adaptive))).isEqualTo(adaptive);
+    assertThatIllegalArgumentException().isThrownBy(() -> RedisEventConfigSource.parse("login", "SLIDING_WINDOW;3"));
+    assertThatIllegalArgumentException().isThrownBy(() -> RedisEventConfigSource.parse("login", "UNKNOWN;3;1000"));
+  }
+
+  @Test
+  void testPublishedChangesAreApplied() throws InterruptedException {
+    JedisConfiguration jedisConf = JedisConfiguration.builder().host(redis.getRedisHost()).port(redis.getRedisPort()).build();
+    EventConfig codeEvent = new EventConfig("codeEvent", 3, Duration.ofSeconds(10));
+    try (RateLimiter limiter = new RateLimiter(jedisConf, "hashSecret", codeEvent);
+      RedisEventConfigSource source = new RedisEventConfigSource(jedisConf, "rate-limiter:events", limiter)) {
+      source.publish(new EventConfig("remoteEvent", 5, Duration.ofSeconds(10)));
+      source.start();
+      assertThat(limiter.getEventConfig("remoteEvent")).map(EventConfig::maxAttempts).contains(5L);
+
+      source.publish(new EventConfig("remoteEvent", 7, Duration.ofSeconds(10)));
+      awaitUntil(() -> limiter.getEventConfig("remoteEvent").map(EventConfig::maxAttempts), Optional.of(7L));
+
+      source.remove("remoteEvent");
+      awaitUntil(() -> limiter.getEventConfig("remoteEvent"), Optional.empty());
+      assertThat(limiter.getEventConfig("codeEvent")).contains(codeEvent);
+    }
+  }
+
+  @Test
+  void testCodeConfigIsRestored() throws InterruptedException {
+    JedisConfiguration jedisConf = JedisConfiguration.builder().host(redis.getRedisHost()).port(redis.getRedisPort()).build();
+    EventConfig codeEvent = new EventConfig("codeEvent", 3, Duration.ofSeconds(10));
+    EventConfig adaptiveEvent = new EventConfig("adaptiveEvent", 100, Duration.ofSeconds(1),
+      new AdaptivePolicy(1, Duration.ofMillis(100), 0.5));
+    try (RateLimiter limiter = new RateLimiter(jedisConf, "hashSecret", codeEvent, adaptiveEvent);
+      RedisEventConfigSource source = new RedisEventConfigSource(jedisConf, "rate-limiter:overrides", limiter)) {
+      source.start();
+      source.publish(new EventConfig("codeEvent", 10, Duration.ofSeconds(10)));
+      awaitUntil(() -> limiter.getEventConfig("codeEvent").map(EventConfig::maxAttempts), Optional.of(10L));
+      source.publish(new EventConfig("codeEvent", 20, Duration.ofSeconds(10)));
+      awaitUntil(() -> limiter.getEventConfig("codeEvent").map(EventConfig::maxAttempts), Optional.of(20L));
+
+      // backed off before being overridden, the configured upper bound is restored
+      limiter.onComplete("adaptiveEvent", "key", Duration.ofMillis(500), false);
+      assertThat(limiter.currentLimit("adaptiveEvent")).hasValue(50);
+      source.publish(new EventConfig("adaptiveEvent", 10, Duration.ofSeconds(1), new AdaptivePolicy(1, Duration.ofMillis(100), 0.5)));
+      awaitUntil(() -> limiter.getEventConfig("adaptiveEvent").map(EventConfig::maxAttempts), Optional.of(10L));
+
+      // a source started on an already overridden limiter doesn't take the overrides for code configuration
+      try (RedisEventConfigSource lateSource = new RedisEventConfigSource(jedisConf, "rate-limiter:overrides", limiter)) {
+        lateSource.start();
+        lateSource.remove("codeEvent");
+        lateSource.remove("adaptiveEvent");
+        awaitUntil(() -> limiter.getEventConfig("codeEvent"), Optional.of(codeEvent));
+        awaitUntil(() -> limiter.getEventConfig("adaptiveEvent"), Optional.of(adaptiveEvent));
+        assertThat(limiter.currentLimit("adaptiveEvent")).hasValue(100);
+      }
+    }
+  }
+
+  @Test
+  void testRejectedConfigsAreSkipped() throws Exception {
+    JedisConfiguration jedisConf = JedisConfiguration.builder().host(redis.getRedisHost()).port(redis.getRedisPort()).build();
+    EventsMappedFileRepository repository = new EventsMappedFileRepository(tempDir.resolve("events.bin"), 1024, 16);
+    try (RateLimiter limiter = new RateLimiter(repository, RateLimiterOptions.defaults(), "hashSecret");
+      RedisEventConfigSource source = new RedisEventConfigSource(jedisConf, "rate-limiter:rejected", limiter)) {
+      // approximate events need a Redis backed limiter
+      source.publish(new EventConfig("approximate", 5, Duration.ofSeconds(10), EventConfig.Type.APPROXIMATE));
+      source.publish(new EventConfig("login", 5, Duration.ofSeconds(10)));
+      source.start();
+      assertThat(limiter.getEventConfig("approximate")).isEmpty();
+      assertThat(limiter.getEventConfig("login")).isPresent();
+
+      source.publish(new EventConfig("tooMany", 100, Duration.ofSeconds(10)));
+      source.publish(new EventConfig("search", 3, Duration.ofSeconds(10)));
+      awaitUntil(() -> limiter.getEventConfig("search").isPresent(), true);
+      assertThat(limiter.getEventConfig("tooMany")).isEmpty();
+    }
+  }
+
+  private static <T> void awaitUntil(Supplier<T> actual, T expected) throws InterruptedException {
+    for (int i = 0; i < 50 && !expected.equals(actual.get()); i++) {
+      TimeUnit.MILLISECONDS.sleep(100);
+    }
+    assertThat(actual.get()).isEqualTo(expected);
+  }
+}
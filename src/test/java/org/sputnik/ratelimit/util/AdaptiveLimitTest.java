@@ -0,0 +1,45 @@
+package org.sputnik.ratelimit.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveLimitTest {
+
+  private static final AdaptivePolicy POLICY = new AdaptivePolicy(2, Duration.ofMillis(100), 0.5);
+
+  @Test
+  void testStartsAtMaxLimit() {
+    assertThat(new AdaptiveLimit(10, POLICY).limit()).isEqualTo(10);
+  }
+
+  @Test
+  void testBackOffOnSlowOrFailedCompletions() {
+    AdaptiveLimit limit = new AdaptiveLimit(16, POLICY);
+    limit.onComplete(Duration.ofMillis(200), true);
+    assertThat(limit.limit()).isEqualTo(8);
+    limit.onComplete(Duration.ofMillis(10), false);
+    assertThat(limit.limit()).isEqualTo(4);
+    limit.onComplete(Duration.ofMillis(200), false);
+    limit.onComplete(Duration.ofMillis(200), false);
+    assertThat(limit.limit()).isEqualTo(2);
+  }
+
+  @Test
+  void testAdditiveIncreaseUpToMaxLimit() {
+    AdaptiveLimit limit = new AdaptiveLimit(4, POLICY);
+    limit.onComplete(Duration.ofMillis(200), true);
+    assertThat(limit.limit()).isEqualTo(2);
+    // 2 -> 2.5 -> 2.9 -> 3.24
+    limit.onComplete(Duration.ofMillis(10), true);
+    limit.onComplete(Duration.ofMillis(10), true);
+    assertThat(limit.limit()).isEqualTo(2);
+    limit.onComplete(Duration.ofMillis(10), true);
+    assertThat(limit.limit()).isEqualTo(3);
+    for (int i = 0; i < 100; i++) {
+      limit.onComplete(Duration.ofMillis(10), true);
+    }
+    assertThat(limit.limit()).isEqualTo(4);
+  }
+}
@@ -0,0 +1,37 @@
+package org.sputnik.ratelimit.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class CachedClockTest {
+
+  @Test
+  void testCurrentTimeMillis() throws InterruptedException {
+    try (CachedClock clock = new CachedClock(Duration.ofMillis(1))) {
+      assertThat(clock.currentTimeMillis()).isCloseTo(System.currentTimeMillis(), within(100L));
+      long first = clock.currentTimeMillis();
+      TimeUnit.MILLISECONDS.sleep(50);
+      assertThat(clock.currentTimeMillis()).isGreaterThan(first);
+    }
+  }
+
+  @Test
+  void testClose() throws InterruptedException {
+    CachedClock clock = new CachedClock(Duration.ofMillis(1));
+    clock.close();
+    TimeUnit.MILLISECONDS.sleep(20);
+    long stopped = clock.currentTimeMillis();
+    TimeUnit.MILLISECONDS.sleep(20);
+    assertThat(clock.currentTimeMillis()).isEqualTo(stopped);
+  }
+
+  @Test
+  void testShared() {
+    assertThat(CachedClock.shared()).isSameAs(CachedClock.shared());
+    assertThat(TimeSource.system().currentTimeMillis()).isCloseTo(System.currentTimeMillis(), within(100L));
+  }
+}
@@ -0,0 +1,48 @@
+package org.sputnik.ratelimit.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HashCacheSnapshotTest {
+
+  private static final Hasher HASHER = new Hasher("note lo digo");
+  private static final String FINGERPRINT = HASHER.convertToHmacSHA256("fingerprint");
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testWriteAndRead() throws IOException {
+    Map<String, String> entries = new LinkedHashMap<>();
+    entries.put("oldest", HASHER.convertToHmacSHA256("oldest"));
+    entries.put("ñandú", HASHER.convertToHmacSHA256("ñandú"));
+    entries.put("newest", HASHER.convertToHmacSHA256("newest"));
+    Path snapshot = tempDir.resolve("hash-cache.bin");
+
+    assertThat(HashCacheSnapshot.write(snapshot, FINGERPRINT, entries)).isEqualTo(3);
+    assertThat(HashCacheSnapshot.read(snapshot, FINGERPRINT)).containsExactlyEntriesOf(entries);
+  }
+
+  @Test
+  void testDifferentSecret() throws IOException {
+    Path snapshot = tempDir.resolve("hash-cache.bin");
+    HashCacheSnapshot.write(snapshot, FINGERPRINT, Map.of("key", HASHER.convertToHmacSHA256("key")));
+
+    String otherFingerprint = new Hasher("other").convertToHmacSHA256("fingerprint");
+    assertThatIllegalArgumentException().isThrownBy(() -> HashCacheSnapshot.read(snapshot, otherFingerprint));
+  }
+
+  @Test
+  void testInvalidFile() throws IOException {
+    Path snapshot = Files.writeString(tempDir.resolve("hash-cache.bin"), "not a snapshot");
+    assertThatIllegalArgumentException().isThrownBy(() -> HashCacheSnapshot.read(snapshot, FINGERPRINT));
+  }
+}
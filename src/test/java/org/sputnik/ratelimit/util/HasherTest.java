@@ -14,4 +14,15 @@ class HasherTest {
     String hashed = hasher.convertToHmacSHA256("mi barba tiene 3 pelos");
     assertThat(hashed).isEqualTo("IpdSn+krpu8J9lx+6NG9MmCxEP6fjqBpPK25EYTNp+c=");
   }
+
+  @Test
+  void testPasswordHasherMultipleThreads() throws InterruptedException {
+    Hasher hasher = new Hasher("note lo digo");
+    String[] hashed = new String[2];
+    Thread thread = new Thread(() -> hashed[0] = hasher.convertToHmacSHA256("mi barba tiene 3 pelos"));
+    thread.start();
+    thread.join();
+    hashed[1] = hasher.convertToHmacSHA256("mi barba tiene 3 pelos");
+    assertThat(hashed).containsOnly("IpdSn+krpu8J9lx+6NG9MmCxEP6fjqBpPK25EYTNp+c=");
+  }
 }
@@ -0,0 +1,91 @@
+package org.sputnik.ratelimit.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.sputnik.ratelimit.domain.KeyUsage;
+
+class HeavyHittersTest {
+
+  @Test
+  void testTopKeys() {
+    HeavyHitters heavyHitters = new HeavyHitters(3, 1024, 4);
+    record(heavyHitters, "noisy", 50);
+    record(heavyHitters, "medium", 20);
+    IntStream.range(0, 200).forEach(i -> record(heavyHitters, "quiet-" + i, 1));
+    record(heavyHitters, "late", 30);
+
+    List<KeyUsage> top = heavyHitters.top(2);
+    assertThat(top).extracting(KeyUsage::key).containsExactly("noisy", "late");
+    assertThat(top.get(0).denials()).isGreaterThanOrEqualTo(50);
+    assertThat(top.get(0).attempts()).isGreaterThanOrEqualTo(50);
+  }
+
+  @Test
+  void testManySimilarKeys() {
+    HeavyHitters heavyHitters = new HeavyHitters(10, 4096, 4);
+    // key-i is denied i times, interleaved across threads so every key keeps competing for the candidate set
+    List<CompletableFuture<Void>> threads = IntStream.range(0, 4).mapToObj(thread -> CompletableFuture.runAsync(() -> {
+      for (int round = 0; round < 200; round++) {
+        for (int i = round + 1 + thread; i < 200; i += 4) {
+          heavyHitters.recordAttempt("key-" + i);
+          heavyHitters.recordDenial("key-" + i);
+        }
+      }
+    })).toList();
+    threads.forEach(CompletableFuture::join);
+
+    assertThat(heavyHitters.top(5)).extracting(KeyUsage::key)
+      .containsExactlyInAnyOrder("key-199", "key-198", "key-197", "key-196", "key-195");
+  }
+
+  @Test
+  void testClear() {
+    HeavyHitters heavyHitters = new HeavyHitters(3, 1024, 4);
+    record(heavyHitters, "noisy", 5);
+    heavyHitters.clear();
+    assertThat(heavyHitters.top(3)).isEmpty();
+  }
+
+  @Test
+  void testWindow() {
+    AtomicLong now = new AtomicLong(1_000_000);
+    HeavyHitters heavyHitters = new HeavyHitters(3, 1024, 4, Duration.ofMinutes(1), now::get);
+    record(heavyHitters, "old", 50);
+
+    now.addAndGet(Duration.ofSeconds(90).toMillis());
+    record(heavyHitters, "new", 10);
+    // the previous window is still counted
+    assertThat(heavyHitters.top(3)).extracting(KeyUsage::key).containsExactly("old", "new");
+
+    now.addAndGet(Duration.ofSeconds(60).toMillis());
+    record(heavyHitters, "new", 5);
+    List<KeyUsage> top = heavyHitters.top(3);
+    assertThat(top).extracting(KeyUsage::key).containsExactly("new");
+    assertThat(top.get(0).denials()).isEqualTo(15);
+
+    now.addAndGet(Duration.ofMinutes(5).toMillis());
+    assertThat(heavyHitters.top(3)).isEmpty();
+  }
+
+  @Test
+  void testCountMinSketchNeverUnderCounts() {
+    CountMinSketch sketch = new CountMinSketch(64, 4);
+    IntStream.range(0, 1000).forEach(i -> sketch.add("key-" + (i % 100)));
+    IntStream.range(0, 100).forEach(i -> assertThat(sketch.estimate("key-" + i)).isGreaterThanOrEqualTo(10));
+    assertThat(sketch.width()).isEqualTo(64);
+    assertThat(sketch.estimate(CountMinSketch.hash("key-1"))).isEqualTo(sketch.estimate("key-1"));
+  }
+
+  private static void record(HeavyHitters heavyHitters, String key, int times) {
+    for (int i = 0; i < times; i++) {
+      heavyHitters.recordAttempt(key);
+      heavyHitters.recordDenial(key);
+    }
+  }
+}
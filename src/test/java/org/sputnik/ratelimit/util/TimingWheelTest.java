@@ -0,0 +1,99 @@
+package org.sputnik.ratelimit.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.sputnik.ratelimit.util.TimingWheel.Timeout;
+
+class TimingWheelTest {
+
+  private final TimingWheel wheel = new TimingWheel("test-timing-wheel", Duration.ofMillis(1), 1_000);
+
+  @AfterEach
+  void tearDown() {
+    wheel.close();
+  }
+
+  @Test
+  void testExpiration() throws InterruptedException {
+    CountDownLatch expired = new CountDownLatch(1);
+    long start = System.nanoTime();
+    Timeout timeout = wheel.schedule(expired::countDown, Duration.ofMillis(20));
+
+    assertThat(expired.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(Duration.ofMillis(20).toNanos());
+    assertThat(timeout.isExpired()).isTrue();
+    assertThat(timeout.cancel()).isFalse();
+  }
+
+  @Test
+  void testExpirationOrderAcrossLevels() throws InterruptedException {
+    List<Integer> order = new CopyOnWriteArrayList<>();
+    CountDownLatch expired = new CountDownLatch(3);
+    // 1 ms tick: 300 ms is in the second level, 10 ms in the first one
+    wheel.schedule(() -> {
+      order.add(300);
+      expired.countDown();
+    }, Duration.ofMillis(300));
+    wheel.schedule(() -> {
+      order.add(10);
+      expired.countDown();
+    }, Duration.ofMillis(10));
+    wheel.schedule(() -> {
+      order.add(100);
+      expired.countDown();
+    }, Duration.ofMillis(100));
+
+    assertThat(expired.await(2, TimeUnit.SECONDS)).isTrue();
+    assertThat(order).containsExactly(10, 100, 300);
+  }
+
+  @Test
+  void testCancel() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    Timeout timeout = wheel.schedule(runs::incrementAndGet, Duration.ofMillis(20));
+    assertThat(timeout.cancel()).isTrue();
+    assertThat(timeout.isCancelled()).isTrue();
+    assertThat(timeout.cancel()).isFalse();
+
+    TimeUnit.MILLISECONDS.sleep(100);
+    assertThat(runs).hasValue(0);
+  }
+
+  @Test
+  void testManyTimeouts() throws InterruptedException {
+    int timeouts = 50_000;
+    CountDownLatch expired = new CountDownLatch(timeouts);
+    for (int i = 0; i < timeouts; i++) {
+      wheel.schedule(expired::countDown, Duration.ofMillis(i % 200));
+    }
+
+    assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  void testTaskErrorDoesNotStopWheel() throws InterruptedException {
+    CountDownLatch expired = new CountDownLatch(1);
+    wheel.schedule(() -> {
+      throw new IllegalStateException("boom");
+    }, Duration.ZERO);
+    wheel.schedule(expired::countDown, Duration.ofMillis(10));
+
+    assertThat(expired.await(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  void testScheduleAfterClose() {
+    wheel.close();
+    assertThatIllegalStateException().isThrownBy(() -> wheel.schedule(() -> {
+    }, Duration.ZERO));
+  }
+}